@@ -0,0 +1,158 @@
+package org.ialhi.mint.plugin.benchmarks;
+
+import org.apache.commons.io.FileUtils;
+import org.ialhi.mint.plugin.DateConversionTable;
+import org.ialhi.mint.plugin.DateNormalization;
+import org.ialhi.mint.plugin.DateRule;
+import org.ialhi.mint.plugin.DateTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of ape:normalizeDate, one input per branch: every {@link DateRule}, an ISO date that
+ * is returned as is, a dateconversion.xml entry and a value that cannot be normalized.
+ * <p>
+ * Run with the GC profiler to see the bytes allocated per operation as well:
+ * <pre>mvn -Pbenchmarks package && java -jar benchmarks/target/benchmarks.jar -prof gc</pre>
+ * The state is shared by all benchmark threads, so -t 1,2,4,... shows how the throughput of one
+ * DateNormalization scales with the threads using it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DateNormalizationBenchmark {
+
+    static final Map<String, String> CASES = new LinkedHashMap<>();
+
+    static {
+        CASES.put("DD_MM_YYYY", "01.01.1985");
+        CASES.put("YYYYMM", "198501");
+        CASES.put("YYYY_MM_DD", "1985.01.01");
+        CASES.put("DD_MM_YYYY_TIMESPAN", "01.01.1985 - 02.01.1985");
+        CASES.put("D_M_YYYY_TIMESPAN", "1.1.1985 - 2.1.1985");
+        CASES.put("YYYY_MM_DD_TIMESPAN", "1985.01.01/1985.01.02");
+        CASES.put("YYYYMMDD", "19850101");
+        CASES.put("YYYYMMDD_TIMESPAN", "19850101/19850102");
+        CASES.put("DDMMYYYY", "01011985");
+        CASES.put("DDMMYYYY_TIMESPAN", "01011985/02011985");
+        CASES.put("YYYY_YYYY", "1985--1986");
+        CASES.put("YYYY_YYYY_YYYY", "1985 - 1987, 1990");
+        CASES.put("DD_MM_YYYY_TEXT_DD_MM_YYYY", "03.07.1985 bis 06.07.1985");
+        CASES.put("D_M_YYYY_TEXT_D_M_YYYY", "3.7.1985 to 6.7.1985");
+        CASES.put("YYYY_TEXT_YYYY", "1985 bis 1988");
+        CASES.put("BEFORE_YYYY", "avant 1985");
+        CASES.put("AFTER_YYYY", "après 1985");
+        CASES.put("AROUND_YYYY", "ca. 1985");
+        CASES.put("CENTURY", "19th century");
+        CASES.put("CENTURY_TIMESPAN", "18th to 19th century");
+        CASES.put("ISO", "1985-01-01/1986-12");
+        CASES.put("TABLE", "vers la fin de la guerre");
+        CASES.put("NULL", "sans date");
+    }
+
+    @Param({"DD_MM_YYYY", "YYYYMM", "YYYY_MM_DD", "DD_MM_YYYY_TIMESPAN", "D_M_YYYY_TIMESPAN", "YYYY_MM_DD_TIMESPAN",
+            "YYYYMMDD", "YYYYMMDD_TIMESPAN", "DDMMYYYY", "DDMMYYYY_TIMESPAN", "YYYY_YYYY", "YYYY_YYYY_YYYY",
+            "DD_MM_YYYY_TEXT_DD_MM_YYYY", "D_M_YYYY_TEXT_D_M_YYYY", "YYYY_TEXT_YYYY", "BEFORE_YYYY", "AFTER_YYYY",
+            "AROUND_YYYY", "CENTURY", "CENTURY_TIMESPAN", "ISO", "TABLE", "NULL"})
+    public String branch;
+
+    private File directory;
+    private String baseURI;
+    private DateNormalization dateNormalization;
+    private String date;
+    private String[] corpus;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("dateconversion").toFile();
+        FileUtils.writeStringToFile(new File(directory, "dateconversion.xml"), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<datelist>\n"
+                + "<date><valueread>vers la fin de la guerre</valueread><valueconverted>1918</valueconverted></date>\n</datelist>\n", "UTF-8");
+        baseURI = directory.getPath();
+        dateNormalization = new DateNormalization(baseURI);
+        date = CASES.get(branch);
+        corpus = CASES.values().toArray(new String[0]);
+        check();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * The full normalizeDate of one branch, without the cache: table lookup, ISO check and rules.
+     */
+    @Benchmark
+    public String normalizeDate() {
+        return dateNormalization.normalizeDate(date, baseURI);
+    }
+
+    /**
+     * The rules alone, as the tokenizer tries them.
+     */
+    @Benchmark
+    public String tokenizer() {
+        return new DateTokenizer(date).normalize();
+    }
+
+    /**
+     * The conversion table lookup alone.
+     */
+    @Benchmark
+    public String tableLookup() {
+        return DateConversionTable.forBaseURI(baseURI).lookup(date);
+    }
+
+    /**
+     * ape:normalizeDate as called from a stylesheet, where repeated values come from the cache.
+     */
+    @Benchmark
+    public String normalizeCached() {
+        return dateNormalization.normalize(date);
+    }
+
+    /**
+     * All branches in turn, so branch prediction cannot learn a single one.
+     */
+    @Benchmark
+    @OperationsPerInvocation(23)
+    public void corpus(Blackhole blackhole) {
+        for (String value : corpus)
+            blackhole.consume(dateNormalization.normalizeDate(value, baseURI));
+    }
+
+    /* Every rule must be hit by its case, or the benchmark would not measure what it claims */
+    private void check() {
+        for (DateRule rule : DateRule.values()) {
+            long before = rule.getHits();
+            String normalized = new DateTokenizer(CASES.get(rule.name())).normalize();
+            if (normalized == null || rule.getHits() != before + 1)
+                throw new IllegalStateException("The case of " + rule + " is not normalized by it");
+        }
+        if (dateNormalization.normalizeDate(CASES.get("TABLE"), baseURI) == null || dateNormalization.normalizeDate(CASES.get("NULL"), baseURI) != null)
+            throw new IllegalStateException("The table or null case does not take its branch");
+    }
+}
@@ -0,0 +1,117 @@
+package org.ialhi.mint.plugin;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Concurrent memo of computed values, including null results, bounded to a maximum number of
+ * entries. Once the maximum is exceeded the oldest entries are evicted first.
+ * <p>
+ * Hits, misses and evictions are counted so the hit rate can be reported.
+ * <p>
+ * clear() publishes a new, empty generation of entries instead of emptying the current one. A
+ * value that was being computed when the cache was cleared goes into the generation it was looked
+ * up in, which is no longer read, so it cannot outlive the clear.
+ */
+public class BoundedCache<K, V> {
+    private static final Object NULL = new Object();
+
+    private final int maximumSize;
+    private volatile Generation<K> generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BoundedCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+        this.generation = new Generation<>(maximumSize);
+    }
+
+    /**
+     * @return the cached value for the key, computing and caching it with the loader on a miss
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key, Function<K, V> loader) {
+        Generation<K> current = generation;
+        Object value = current.values.get(key);
+        if (value != null) {
+            hits.increment();
+            return value == NULL ? null : (V) value;
+        }
+        misses.increment();
+        V loaded = loader.apply(key);
+        if (maximumSize > 0)
+            put(current, key, loaded);
+        return loaded;
+    }
+
+    /**
+     * @return true if the key is cached, without counting a hit or a miss
+     */
+    public boolean contains(K key) {
+        return generation.values.containsKey(key);
+    }
+
+    public void put(K key, V value) {
+        put(generation, key, value);
+    }
+
+    private void put(Generation<K> current, K key, V value) {
+        if (current.values.putIfAbsent(key, value == null ? NULL : value) == null) {
+            current.insertionOrder.add(key);
+            while (current.values.size() > maximumSize) {
+                K oldest = current.insertionOrder.poll();
+                if (oldest == null)
+                    break;
+                if (current.values.remove(oldest) != null)
+                    evictions.increment();
+            }
+        }
+    }
+
+    public void clear() {
+        generation = new Generation<>(maximumSize);
+    }
+
+    public int size() {
+        return generation.values.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + maximumSize + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions();
+    }
+
+    private static class Generation<K> {
+        final ConcurrentHashMap<K, Object> values;
+        final ConcurrentLinkedQueue<K> insertionOrder = new ConcurrentLinkedQueue<>();
+
+        Generation(int maximumSize) {
+            values = new ConcurrentHashMap<>(Math.max(16, Math.min(maximumSize, 1 << 16)));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The country codes accepted by {@link DateNormalization} for country codes and as the prefix of
+ * main agency codes, kept as a bitset of the 26 x 26 possible pairs of capital letters.
+ * <p>
+ * The list is read from countrycodes.txt on the classpath, or from the file named by the system
+ * property xsltplugin.countrycodes.file. Codes are separated by white space, a # starts a comment.
+ * Both checks run in constant time and allocate nothing.
+ */
+public class CountryCodes {
+    private static final Logger LOG = Logger.getLogger(CountryCodes.class);
+    private static final String RESOURCE = "/countrycodes.txt";
+    private static final int MAX_PREFIX = 4;
+    private static final int MAX_SUFFIX = 11;
+
+    private final long[] bits = new long[(26 * 26 + 63) / 64];
+
+    private static class DefaultHolder {
+        static final CountryCodes DEFAULT = load();
+    }
+
+    public static CountryCodes getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    public static CountryCodes parse(String list) {
+        CountryCodes codes = new CountryCodes();
+        for (String line : list.split("\r?\n")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            for (String code : line.trim().split("\\s+")) {
+                if (code.isEmpty())
+                    continue;
+                if (code.length() != 2 || !isCapital(code.charAt(0)) || !isCapital(code.charAt(1)))
+                    throw new IllegalArgumentException("Not a country code: " + code);
+                codes.add(code.charAt(0), code.charAt(1));
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * @return whether the value is one of the country codes, in capitals
+     */
+    public boolean isCountryCode(CharSequence value) {
+        return value.length() == 2 && contains(value.charAt(0), value.charAt(1));
+    }
+
+    /**
+     * Checks ((country code)|[a-zA-Z]{1}|[a-zA-Z]{3,4})(-[a-zA-Z0-9:/\-]{1,11}), reading Ö as O.
+     * <p>
+     * The prefix only holds letters and is followed by a dash, so it is the run of letters the
+     * value starts with.
+     */
+    public boolean isMainAgencyCode(CharSequence value) {
+        int length = value.length();
+        if (length < 3 || length > MAX_PREFIX + 1 + MAX_SUFFIX)
+            return false;
+        int prefix = 0;
+        while (prefix < length && isLetter(letter(value.charAt(prefix))))
+            prefix++;
+        if (prefix == 2) {
+            if (!contains(letter(value.charAt(0)), letter(value.charAt(1))))
+                return false;
+        } else if (prefix != 1 && prefix != 3 && prefix != 4) {
+            return false;
+        }
+        int suffix = length - prefix - 1;
+        if (suffix < 1 || suffix > MAX_SUFFIX || value.charAt(prefix) != '-')
+            return false;
+        for (int i = prefix + 1; i < length; i++) {
+            char c = letter(value.charAt(i));
+            if (!isLetter(c) && !(c >= '0' && c <= '9') && c != ':' && c != '/' && c != '-')
+                return false;
+        }
+        return true;
+    }
+
+    boolean contains(char first, char second) {
+        if (!isCapital(first) || !isCapital(second))
+            return false;
+        int index = (first - 'A') * 26 + (second - 'A');
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private void add(char first, char second) {
+        int index = (first - 'A') * 26 + (second - 'A');
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static char letter(char c) {
+        return c == 'Ö' ? 'O' : c;
+    }
+
+    private static boolean isCapital(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isLetter(char c) {
+        return isCapital(c) || (c >= 'a' && c <= 'z');
+    }
+
+    private static CountryCodes load() {
+        String file = System.getProperty("xsltplugin.countrycodes.file");
+        try (InputStream in = file != null ? new FileInputStream(file) : CountryCodes.class.getResourceAsStream(RESOURCE)) {
+            if (in == null)
+                throw new IOException(RESOURCE + " is not on the classpath");
+            return parse(IOUtils.toString(in, StandardCharsets.UTF_8.name()));
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Could not read the country codes from " + (file != null ? file : RESOURCE) + ": " + e.getMessage());
+            return new CountryCodes();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.ialhi.mint.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.BiConsumer;
+
+/**
+ * Append-only log of entries added to a date conversion table, kept next to the XML as
+ * dateconversion.journal.
+ * <p>
+ * Each entry is one line: the value read and the value converted, separated by a tab, with
+ * backslash, tab and line breaks escaped. Appends are synced to disk before returning. A line is
+ * only read once its line break is written, so an append interrupted by a crash is ignored instead
+ * of corrupting the table. {@link DateConversionTable#compact()} merges the journal into the XML.
+ * <p>
+ * Compaction first moves the journal aside to dateconversion.journal.compacting, so entries appended
+ * while the XML is written go to a new journal. The moved file is only deleted once the XML is
+ * saved; if that never happens it is read back, before the journal, until the next compaction.
+ */
+public class DateConversionJournal {
+    public static final String FILE_NAME = "dateconversion.journal";
+    public static final String COMPACTING_FILE_NAME = FILE_NAME + ".compacting";
+
+    private final File file;
+    private final File compacting;
+
+    public DateConversionJournal(File xml) {
+        File directory = xml.getAbsoluteFile().getParentFile();
+        this.file = new File(directory, FILE_NAME);
+        this.compacting = new File(directory, COMPACTING_FILE_NAME);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long length() {
+        return file.length();
+    }
+
+    public synchronized void append(String valueRead, String valueConverted) throws IOException {
+        byte[] line = (escape(valueRead.trim()) + "\t" + escape(valueConverted.trim()) + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(line);
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Passes the entries being compacted and then those of the journal to the consumer, in the
+     * order they were written.
+     *
+     * @return the offset in the journal after its last complete entry
+     */
+    public synchronized long readAll(BiConsumer<String, String> into) throws IOException {
+        read(compacting, 0, into);
+        return read(file, 0, into);
+    }
+
+    /**
+     * Passes the complete entries written after offset to the consumer, in the order they were written.
+     *
+     * @return the offset after the last complete entry
+     */
+    public long read(long offset, BiConsumer<String, String> into) throws IOException {
+        return read(file, offset, into);
+    }
+
+    /**
+     * Moves the journal aside for compaction. Appends made from now on start a new journal. Entries
+     * left aside by a compaction that did not finish are kept in front of the moved ones.
+     */
+    public synchronized void detach() throws IOException {
+        if (!file.exists())
+            return;
+        if (!compacting.exists()) {
+            if (!file.renameTo(compacting))
+                throw new IOException("Could not move " + file.getPath() + " to " + compacting.getPath());
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        try (FileOutputStream out = new FileOutputStream(compacting, true)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        delete(file);
+    }
+
+    /**
+     * Passes the entries moved aside by {@link #detach()} to the consumer.
+     */
+    public void readDetached(BiConsumer<String, String> into) throws IOException {
+        read(compacting, 0, into);
+    }
+
+    /**
+     * Deletes the entries moved aside, once they are saved in the XML.
+     */
+    public synchronized void deleteDetached() throws IOException {
+        delete(compacting);
+    }
+
+    private static long read(File file, long offset, BiConsumer<String, String> into) throws IOException {
+        if (!file.exists())
+            return offset;
+        byte[] bytes;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            long length = in.length();
+            if (length <= offset)
+                return offset;
+            bytes = new byte[(int) (length - offset)];
+            in.seek(offset);
+            in.readFully(bytes);
+        }
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n')
+                continue;
+            String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+            int tab = line.indexOf('\t');
+            if (tab > 0 && tab < line.length() - 1)
+                into.accept(unescape(line.substring(0, tab)), unescape(line.substring(tab + 1)));
+            lineStart = i + 1;
+        }
+        return offset + lineStart;
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.exists() && !file.delete())
+            throw new IOException("Could not delete " + file.getPath());
+    }
+
+    private static String escape(String value) {
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': out.append("\\\\"); break;
+                case '\t': out.append("\\t"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                default: out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0)
+            return value;
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
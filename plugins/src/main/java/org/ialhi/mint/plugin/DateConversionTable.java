@@ -0,0 +1,311 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory copy of a dateconversion.xml file, indexed by the canonical key of the value read.
+ * <p>
+ * The canonical key is trimmed, has its white space collapsed to single spaces and dropped around
+ * dashes, all dashes replaced by a hyphen-minus and its case folded, so "  1914 - 1918 ",
+ * "1914-1918" and "1914 – 1918" are all found by one entry. Keys are made canonical once when
+ * the table is loaded and the input once per lookup. Of several entries with the same key, the
+ * first one in the file wins.
+ * <p>
+ * Tables are shared through the {@link DateConversionTableRegistry}. Lookups read a volatile snapshot of the entries and never lock;
+ * the file is parsed again only when its modification time changes. The modification time itself
+ * is checked at most once per CHECK_INTERVAL milliseconds.
+ * <p>
+ * If a dateconversion.bin compiled by {@link DateConversionTableCompiler} sits next to the XML and
+ * is not older than it, that file is memory mapped instead of parsing the XML.
+ * <p>
+ * Entries added with addEntry are appended to a {@link DateConversionJournal} and take precedence
+ * over the file. Readers see them on their next lookup: only the new part of the journal is read,
+ * the file is not loaded again. compact() merges the journal into the XML.
+ */
+public class DateConversionTable {
+    private static final Logger LOG = Logger.getLogger(DateConversionTable.class);
+    private static final String FILE_NAME = "/dateconversion.xml";
+    private static final long CHECK_INTERVAL = 1000;
+
+    private static final AtomicInteger VERSIONS = new AtomicInteger();
+
+    private final File file;
+    private final File binaryFile;
+    private final DateConversionJournal journal;
+    private volatile Snapshot snapshot = new Snapshot(Collections.<String, String>emptyMap(), null, -1, -1, Collections.<String, String>emptyMap(), 0, 0);
+    private volatile long lastChecked;
+    private volatile long lastAccessed = System.currentTimeMillis();
+
+    DateConversionTable(File file) {
+        this.file = file;
+        this.binaryFile = DateConversionTableCompiler.getBinaryFile(file);
+        this.journal = new DateConversionJournal(file);
+    }
+
+    public static DateConversionTable forBaseURI(String baseURI) {
+        return DateConversionTableRegistry.get(baseURI);
+    }
+
+    public static String getFilePath(String baseURI) {
+        if (StringUtils.isBlank(baseURI))
+            return "src/main/resources" + FILE_NAME;
+        return baseURI + FILE_NAME;
+    }
+
+    public String lookup(String input) {
+        refreshIfModified();
+        return snapshot.lookup(canonicalKey(input));
+    }
+
+    /**
+     * @return the key a value read is indexed by, the same instance if it already is canonical.
+     * Most values are, so they are checked first and only the others are copied.
+     */
+    public static String canonicalKey(String value) {
+        if (isCanonical(value))
+            return value;
+        int length = value.length();
+        StringBuilder key = new StringBuilder(length);
+        boolean space = false;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (isSpace(c)) {
+                space = key.length() > 0;
+                continue;
+            }
+            if (isDash(c))
+                c = '-';
+            else if (space && key.charAt(key.length() - 1) != '-')
+                key.append(' ');
+            space = false;
+            key.append(Character.toLowerCase(Character.toUpperCase(c)));
+        }
+        return key.toString();
+    }
+
+    /* Single spaces between words only, plain dashes without spaces around them and folded case */
+    private static boolean isCanonical(String value) {
+        int length = value.length();
+        char previous = '-';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (isSpace(c)) {
+                if (c != ' ' || previous == ' ' || previous == '-' || i == length - 1)
+                    return false;
+            } else if (isDash(c)) {
+                if (c != '-' || previous == ' ')
+                    return false;
+            } else if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+
+    private static boolean isSpace(char c) {
+        return Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+
+    private static boolean isDash(char c) {
+        return c == '-' || (c >= '\u2010' && c <= '\u2015') || c == '\u2212' || c == '\uFE58' || c == '\uFE63' || c == '\uFF0D';
+    }
+
+    public String getPath() {
+        return file.getPath();
+    }
+
+    public long getLastAccessed() {
+        return lastAccessed;
+    }
+
+    /**
+     * @return the approximate number of heap bytes held by the loaded entries
+     */
+    public long getEstimatedSize() {
+        return snapshot.estimatedSize;
+    }
+
+    /**
+     * @return a number that changes every time the table is loaded again, unique across all tables
+     */
+    public int getVersion() {
+        refreshIfModified();
+        return snapshot.version;
+    }
+
+    public int size() {
+        refreshIfModified();
+        return snapshot.size();
+    }
+
+    /**
+     * Appends an entry to the journal and makes it visible to all readers of this table.
+     */
+    public void addEntry(String valueRead, String valueConverted) throws IOException {
+        journal.append(valueRead, valueConverted);
+        readJournal();
+    }
+
+    /**
+     * Merges the journal into the XML, writing a temporary file that then replaces the XML. A
+     * compiled table next to the XML is compiled again. Entries added meanwhile stay in the journal.
+     */
+    public synchronized void compact() throws IOException {
+        //By canonical key, so a journal entry replaces the variant already in the file
+        Map<String, Vector<String>> entries = new LinkedHashMap<>();
+        DateConversionXMLFilehandler fileHandler = new DateConversionXMLFilehandler();
+        fileHandler.loadEntries(file.getPath(), (valueRead, valueConverted) -> entries.putIfAbsent(canonicalKey(valueRead), row(valueRead, valueConverted)));
+        journal.detach();
+        journal.readDetached((valueRead, valueConverted) -> entries.put(canonicalKey(valueRead), row(valueRead, valueConverted)));
+        Vector<Vector<String>> data = new Vector<>(entries.values());
+        if (!fileHandler.writeDataToFile(data, file.getPath()))
+            throw new IOException("Could not write " + file.getPath());
+        journal.deleteDetached();
+        if (binaryFile.exists())
+            DateConversionTableCompiler.compile(file, binaryFile);
+        reload();
+        LOG.info("Compacted " + entries.size() + " date conversion entries into " + file.getPath());
+    }
+
+    private static Vector<String> row(String valueRead, String valueConverted) {
+        Vector<String> row = new Vector<>(2);
+        row.add(valueRead);
+        row.add(valueConverted);
+        return row;
+    }
+
+    private void refreshIfModified() {
+        long now = System.currentTimeMillis();
+        if (now != lastAccessed)
+            lastAccessed = now;
+        Snapshot current = snapshot;
+        //Until the first load is published, wait for it rather than read the empty snapshot
+        if (now - lastChecked < CHECK_INTERVAL && current.version != 0)
+            return;
+        lastChecked = now;
+        if (file.lastModified() != current.lastModified || binaryFile.lastModified() != current.binaryLastModified)
+            reloadIfModified();
+        else if (journal.length() != current.journalOffset)
+            readJournal();
+    }
+
+    private synchronized void reloadIfModified() {
+        Snapshot current = snapshot;
+        if (file.lastModified() != current.lastModified || binaryFile.lastModified() != current.binaryLastModified)
+            reload();
+    }
+
+    private synchronized void readJournal() {
+        Snapshot current = snapshot;
+        if (journal.length() < current.journalOffset) {
+            //Compacted by someone else
+            reload();
+            return;
+        }
+        Map<String, String> journalEntries = new HashMap<>(current.journal);
+        try {
+            long offset = journal.read(current.journalOffset, (valueRead, valueConverted) -> journalEntries.put(canonicalKey(valueRead), valueConverted));
+            if (offset != current.journalOffset)
+                snapshot = new Snapshot(current.entries, current.mapped, current.lastModified, current.binaryLastModified, journalEntries, offset, VERSIONS.incrementAndGet());
+        } catch (IOException e) {
+            LOG.error("Could not read " + journal.getFile().getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private synchronized void reload() {
+        Snapshot current = snapshot;
+        long modified = file.lastModified();
+        long binaryModified = binaryFile.lastModified();
+        int version = VERSIONS.incrementAndGet();
+        Map<String, String> journalEntries = new HashMap<>();
+        long journalOffset = 0;
+        try {
+            journalOffset = journal.readAll((valueRead, valueConverted) -> journalEntries.put(canonicalKey(valueRead), valueConverted));
+        } catch (IOException e) {
+            LOG.error("Could not read " + journal.getFile().getPath() + ": " + e.getMessage());
+        }
+        if (binaryModified != 0 && binaryModified >= modified) {
+            try {
+                MappedDateConversionTable mapped = MappedDateConversionTable.open(binaryFile);
+                snapshot = new Snapshot(null, mapped, modified, binaryModified, journalEntries, journalOffset, version);
+                LOG.debug("Mapped " + mapped.size() + " date conversion entries from " + binaryFile.getPath());
+                DateConversionTableRegistry.enforceBudget();
+                return;
+            } catch (IOException e) {
+                LOG.error("Could not map " + binaryFile.getPath() + ", loading " + file.getPath() + " instead: " + e.getMessage());
+            }
+        } else if (binaryModified != 0) {
+            LOG.warn(binaryFile.getPath() + " is older than " + file.getPath() + " and is ignored, compile it again");
+        }
+        Map<String, String> loaded = new HashMap<>();
+        //The first entry wins, as it did with the linear scan
+        new DateConversionXMLFilehandler().loadEntries(file.getPath(), (valueRead, valueConverted) -> loaded.putIfAbsent(canonicalKey(valueRead), valueConverted));
+        //The file handler creates the file when it is missing, so read the time again in that case
+        snapshot = new Snapshot(loaded, null, modified == 0 ? file.lastModified() : modified, binaryModified, journalEntries, journalOffset, version);
+        LOG.debug("Loaded " + loaded.size() + " date conversion entries from " + file.getPath());
+        DateConversionTableRegistry.enforceBudget();
+    }
+
+    /**
+     * The entries as loaded from one version of the files. Never modified once published.
+     */
+    private static class Snapshot {
+        final Map<String, String> entries;
+        final MappedDateConversionTable mapped;
+        final long lastModified;
+        final long binaryLastModified;
+        final Map<String, String> journal;
+        final long journalOffset;
+        final int version;
+        final long estimatedSize;
+
+        Snapshot(Map<String, String> entries, MappedDateConversionTable mapped, long lastModified, long binaryLastModified,
+                 Map<String, String> journal, long journalOffset, int version) {
+            this.entries = entries;
+            this.mapped = mapped;
+            this.lastModified = lastModified;
+            this.binaryLastModified = binaryLastModified;
+            this.journal = journal;
+            this.journalOffset = journalOffset;
+            this.version = version;
+            this.estimatedSize = estimateSize(entries) + estimateSize(journal) + (mapped != null ? 256 : 0);
+        }
+
+        String lookup(String input) {
+            if (!journal.isEmpty()) {
+                String fromJournal = journal.get(input);
+                if (fromJournal != null)
+                    return fromJournal;
+            }
+            if (mapped != null)
+                return mapped.lookup(input);
+            return entries.get(input);
+        }
+
+        /* A HashMap node and two Strings with their char arrays */
+        private static long estimateSize(Map<String, String> map) {
+            if (map == null)
+                return 0;
+            long size = 16 + 4L * map.size();
+            for (Map.Entry<String, String> entry : map.entrySet())
+                size += 32 + 2 * 40 + 2L * (entry.getKey().length() + entry.getValue().length());
+            return size;
+        }
+
+        int size() {
+            //Journal entries replacing existing ones are counted twice
+            return (mapped != null ? mapped.size() : entries.size()) + journal.size();
+        }
+    }
+}
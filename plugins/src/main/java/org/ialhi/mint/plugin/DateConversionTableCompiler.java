@@ -0,0 +1,90 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiles a dateconversion.xml into the binary format read by {@link MappedDateConversionTable}.
+ * <p>
+ * The XML stays the authoring format. Run this after editing it, for instance:
+ * <pre>java org.ialhi.mint.plugin.DateConversionTableCompiler /data/org1/dateconversion.xml</pre>
+ * The result is written next to the XML as dateconversion.bin, which DateConversionTable then maps
+ * instead of parsing the XML, as long as it is not older than the XML. Entries are stored by
+ * their canonical key, see {@link DateConversionTable#canonicalKey(String)}.
+ */
+public class DateConversionTableCompiler {
+    private static final Logger LOG = Logger.getLogger(DateConversionTableCompiler.class);
+    public static final String BINARY_FILE_NAME = "dateconversion.bin";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: DateConversionTableCompiler <dateconversion.xml> [<output file>]");
+            System.exit(1);
+        }
+        File xml = new File(args[0]);
+        File binary = args.length == 2 ? new File(args[1]) : getBinaryFile(xml);
+        int size = compile(xml, binary);
+        System.out.println("Compiled " + size + " entries into " + binary.getPath());
+    }
+
+    public static File getBinaryFile(File xml) {
+        return new File(xml.getAbsoluteFile().getParentFile(), BINARY_FILE_NAME);
+    }
+
+    /**
+     * @return the number of entries written
+     */
+    public static int compile(File xml, File binary) throws IOException {
+        Map<String, String> entries = new LinkedHashMap<>();
+        new DateConversionXMLFilehandler().loadEntries(xml.getPath(), (valueRead, valueConverted) -> entries.putIfAbsent(DateConversionTable.canonicalKey(valueRead), valueConverted));
+        write(entries, binary);
+        LOG.info("Compiled " + entries.size() + " date conversion entries from " + xml.getPath() + " into " + binary.getPath());
+        return entries.size();
+    }
+
+    static void write(Map<String, String> entries, File binary) throws IOException {
+        int slotCount = Integer.highestOneBit(Math.max(1, entries.size()) * 2) << 1;
+        int mask = slotCount - 1;
+        int[] slots = new int[slotCount];
+        Arrays.fill(slots, -1);
+
+        ByteArrayOutputStream dataBytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(dataBytes);
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            int slot = MappedDateConversionTable.slot(entry.getKey().hashCode(), mask);
+            while (slots[slot] >= 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = data.size();
+            writeString(data, entry.getKey());
+            writeString(data, entry.getValue());
+        }
+
+        File temporary = new File(binary.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MappedDateConversionTable.MAGIC);
+            out.writeInt(MappedDateConversionTable.VERSION);
+            out.writeInt(entries.size());
+            out.writeInt(slotCount);
+            for (int slot : slots)
+                out.writeInt(slot);
+            dataBytes.writeTo(out);
+        }
+        Files.move(temporary.toPath(), binary.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeInt(value.length());
+        out.writeChars(value);
+    }
+}
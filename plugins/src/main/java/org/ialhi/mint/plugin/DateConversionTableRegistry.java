@@ -0,0 +1,90 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide registry of the date conversion tables of all organisations.
+ * <p>
+ * Tables are shared by the canonical path of their XML, so baseURIs that point at the same file
+ * load it once. The registry keeps the approximate heap used by all tables under a budget, set in
+ * bytes with the system property xsltplugin.dateconversion.memory_budget (a quarter of the maximum
+ * heap by default). When a load goes over it, the least recently used tables are dropped; they are
+ * loaded again on their next use, together with the baseURIs resolved to them. The table used last
+ * is never dropped, even if it is over the budget on its own.
+ */
+public class DateConversionTableRegistry {
+    private static final Logger LOG = Logger.getLogger(DateConversionTableRegistry.class);
+    private static final long MEMORY_BUDGET = Long.getLong("xsltplugin.dateconversion.memory_budget", Runtime.getRuntime().maxMemory() / 4);
+
+    private static final ConcurrentHashMap<String, String> CANONICAL_PATHS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, DateConversionTable> TABLES = new ConcurrentHashMap<>();
+
+    private DateConversionTableRegistry() {
+    }
+
+    public static DateConversionTable get(String baseURI) {
+        //get() first: on Java 8 computeIfAbsent locks its bin even when the key is present
+        String filePath = DateConversionTable.getFilePath(baseURI);
+        String path = CANONICAL_PATHS.get(filePath);
+        if (path == null)
+            path = CANONICAL_PATHS.computeIfAbsent(filePath, DateConversionTableRegistry::canonicalPath);
+        DateConversionTable table = TABLES.get(path);
+        if (table != null)
+            return table;
+        return TABLES.computeIfAbsent(path, canonical -> new DateConversionTable(new File(canonical)));
+    }
+
+    public static Collection<DateConversionTable> getTables() {
+        return Collections.unmodifiableCollection(TABLES.values());
+    }
+
+    public static long getEstimatedSize() {
+        long total = 0;
+        for (DateConversionTable table : TABLES.values())
+            total += table.getEstimatedSize();
+        return total;
+    }
+
+    public static long getMemoryBudget() {
+        return MEMORY_BUDGET;
+    }
+
+    /**
+     * Called after a table is loaded: drops the least recently used tables until the total is
+     * within the budget again.
+     */
+    static synchronized void enforceBudget() {
+        long total = getEstimatedSize();
+        if (total <= MEMORY_BUDGET)
+            return;
+        List<DateConversionTable> tables = new ArrayList<>(TABLES.values());
+        tables.sort(Comparator.comparingLong(DateConversionTable::getLastAccessed));
+        for (int i = 0; i < tables.size() - 1 && total > MEMORY_BUDGET; i++) {
+            DateConversionTable table = tables.get(i);
+            if (TABLES.remove(table.getPath(), table)) {
+                CANONICAL_PATHS.values().removeIf(table.getPath()::equals);
+                total -= table.getEstimatedSize();
+                LOG.info("Dropped the date conversion table " + table.getPath() + " (about " + table.getEstimatedSize() / 1024 + " KB) to stay within the memory budget");
+            }
+        }
+        if (total > MEMORY_BUDGET)
+            LOG.warn("The date conversion tables use about " + total / 1024 + " KB, more than the budget of " + MEMORY_BUDGET / 1024 + " KB");
+    }
+
+    private static String canonicalPath(String path) {
+        try {
+            return new File(path).getCanonicalPath();
+        } catch (IOException e) {
+            return new File(path).getAbsolutePath();
+        }
+    }
+}
@@ -4,35 +4,59 @@
  */
 package org.ialhi.mint.plugin;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Vector;
+import java.util.function.BiConsumer;
 
 /**
  *
  * @author papp
  */
 public class DateConversionXMLFilehandler {
+    private static final Logger LOG = Logger.getLogger(DateConversionXMLFilehandler.class);
 
+    /**
+     * Writes the rows to a temporary file that then replaces the XML, so the XML is never left half written.
+     * A failure is logged.
+     */
     public void saveDataToFile(Vector data, String xmlFilePath) {
+        writeDataToFile(data, xmlFilePath);
+    }
+
+    /**
+     * As {@link #saveDataToFile(Vector, String)}.
+     *
+     * @return true if the file was written
+     */
+    public boolean writeDataToFile(Vector data, String xmlFilePath) {
+        File file = new File(xmlFilePath);
+        File temporary = new File(xmlFilePath + ".tmp");
         try {
             DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
             DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
@@ -55,67 +79,122 @@ public class DateConversionXMLFilehandler {
             TransformerFactory transformerFactory = TransformerFactory.newInstance();
             Transformer transformer = transformerFactory.newTransformer();
             DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(new StringWriter());
             transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.transform(source, result);
-            File file;
-            try {
-                file = new File(xmlFilePath);
-                if (!file.exists()) {
-                    file.createNewFile();
-                }
-                String xmlString = result.getWriter().toString();
-                FileUtils.writeStringToFile(file, xmlString, "UTF-8");
-            } catch (IOException e) {
-//                LOG.error("We could not use the date conversion XML file, most likely it was not found, cause: " + e.getMessage());
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temporary))) {
+                transformer.transform(source, new StreamResult(out));
             }
-        } catch (TransformerException ex) {
-        } catch (ParserConfigurationException ex) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            LOG.error("We could not write the date conversion XML file " + xmlFilePath + ", cause: " + e.getMessage());
+        } catch (TransformerException | ParserConfigurationException e) {
+            LOG.error("We could not create the date conversion XML file " + xmlFilePath + ", cause: " + e.getMessage());
         }
+        temporary.delete();
+        return false;
+    }
+
+    /**
+     * Adds one entry to the table of the baseURI through its journal, without rewriting the XML.
+     */
+    public void addEntry(String valueRead, String valueConverted, String baseURI) throws IOException {
+        DateConversionTable.forBaseURI(baseURI).addEntry(valueRead, valueConverted);
+    }
+
+    /**
+     * Merges the journal of the baseURI into its XML.
+     */
+    public void compact(String baseURI) throws IOException {
+        DateConversionTable.forBaseURI(baseURI).compact();
     }
 
     public Vector loadDataFromFile(String xmlFile) {
         Vector result = new Vector();
+        loadEntries(xmlFile, (valueRead, valueConverted) -> {
+            Vector row = new Vector();
+            row.add(valueRead);
+            row.add(valueConverted);
+            result.add(row);
+        });
+        return result;
+    }
+
+    /**
+     * Streams the entries of the file to the consumer in document order, without building a DOM.
+     * Entries with an empty value read or value converted are skipped. A missing file is created empty.
+     *
+     * @return the number of entries passed to the consumer
+     */
+    public int loadEntries(String xmlFile, BiConsumer<String, String> consumer) {
         File file = new File(xmlFile);
-        try {
-            if (!file.exists()) {
-                saveDataToFile(result, xmlFile);
+        if (!file.exists())
+            saveDataToFile(new Vector(), xmlFile);
+        long start = System.currentTimeMillis();
+        int entries = 0;
+        int skipped = 0;
+        XMLStreamReader reader = null;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            reader = factory.createXMLStreamReader(in);
+            String valueRead = null;
+            String valueConverted = null;
+            StringBuilder text = null;
+            int textDepth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (text != null) {
+                        textDepth++;
+                    } else if ("date".equals(name)) {
+                        valueRead = null;
+                        valueConverted = null;
+                    } else if (("valueread".equals(name) && valueRead == null) || ("valueconverted".equals(name) && valueConverted == null)) {
+                        text = new StringBuilder();
+                        textDepth = 0;
+                    }
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (text != null)
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (text != null) {
+                        if (textDepth-- > 0)
+                            continue;
+                        if ("valueread".equals(name))
+                            valueRead = text.toString().trim();
+                        else
+                            valueConverted = text.toString().trim();
+                        text = null;
+                    } else if ("date".equals(name)) {
+                        if (valueRead != null && valueConverted != null && !valueRead.isEmpty() && !valueConverted.isEmpty()) {
+                            consumer.accept(valueRead, valueConverted);
+                            entries++;
+                        } else {
+                            skipped++;
+                        }
+                    }
+                }
             }
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-            Document doc = docBuilder.parse(file);
-            Element root = doc.getDocumentElement();
-            NodeList dateNodes = root.getElementsByTagName("date");
-            for (int i = 0; i < dateNodes.getLength(); i++) {
-                Node node = dateNodes.item(i);
-                Vector row = new Vector();
-                if (node.getNodeType() == Node.ELEMENT_NODE) {
-                    Element element = (Element) node;
-                    row.add(element.getElementsByTagName("valueread").item(0).getTextContent().trim());
-                    row.add(element.getElementsByTagName("valueconverted").item(0).getTextContent().trim());
+        } catch (IOException | XMLStreamException e) {
+            LOG.error("We could not use the date conversion XML file " + xmlFile + ", cause: " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    LOG.debug("Could not close the reader of " + xmlFile);
                 }
-                if(!row.isEmpty() && !row.elementAt(0).equals("") && !row.elementAt(1).equals(""))
-                result.add(row);
             }
-        } catch (SAXException ex) {
-        } catch (IOException ex) {
-        } catch (ParserConfigurationException ex) {
         }
-        return result;
+        LOG.info("Loaded " + entries + " date conversion entries (" + skipped + " empty ones skipped) from " + xmlFile + " in " + (System.currentTimeMillis() - start) + " ms");
+        return entries;
     }
     
     public String findsEntry(String input, String baseURI){
-        String filePath = "/dateconversion.xml";
-        if(StringUtils.isBlank(baseURI))
-            filePath = "src/main/resources" + filePath;
-        else
-            filePath = baseURI + filePath;
-        Vector data = loadDataFromFile(filePath);
-        for (Object aData : data) {
-            if (((Vector) aData).size() != 0)
-                if (input.equals(((Vector) aData).get(0)))
-                    return (String) ((Vector) aData).get(1);
-        }
-        return null;
+        return DateConversionTable.forBaseURI(baseURI).lookup(input);
     }
 }
@@ -0,0 +1,226 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.log4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * The keywords of the date rules, loaded from language packs and compiled into one trie.
+ * <p>
+ * Every word of every active pack is a path in the trie; its last node holds a bitmask of the
+ * categories (BEFORE, AFTER, ...) the word belongs to. {@link #categories(String, int, int)}
+ * walks the trie once from each position that can start a word and so finds the categories of
+ * all packs at once: the cost depends on the length of the input and of the words, not on the
+ * number of languages.
+ * <p>
+ * The packs are read from datekeywords.properties on the classpath, which documents the format,
+ * and from the file named by xsltplugin.datenormalization.keyword_file. The system property
+ * xsltplugin.datenormalization.keyword_packs lists the active packs, all by default.
+ */
+public class DateKeywords {
+    private static final Logger LOG = Logger.getLogger(DateKeywords.class);
+    private static final String RESOURCE = "/datekeywords.properties";
+
+    public static final int BEFORE = 1;
+    public static final int AFTER = 1 << 1;
+    public static final int AROUND = 1 << 2;
+    public static final int ORDINAL = 1 << 3;
+    public static final int CONNECTOR = 1 << 4;
+    public static final int CENTURY = 1 << 5;
+    static final int ALL = (1 << 6) - 1;
+
+    private static final List<String> CATEGORY_NAMES = Arrays.asList("before", "after", "around", "ordinal", "connector", "century");
+
+    private final Node root;
+    private final List<String> packs;
+
+    private static class DefaultHolder {
+        static final DateKeywords DEFAULT = load();
+    }
+
+    /* The trie is complete before it is assigned to the final field, so any thread sees all of it */
+    private DateKeywords(Node root, List<String> packs) {
+        this.root = root;
+        this.packs = Collections.unmodifiableList(packs);
+    }
+
+    public static DateKeywords getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * @param packs the words per key, as in datekeywords.properties
+     * @param active the names of the packs to use, or null for all
+     */
+    public static DateKeywords compile(Properties packs, List<String> active) {
+        Map<String, Map<Integer, String>> byPack = new LinkedHashMap<>();
+        for (String key : new TreeSet<>(packs.stringPropertyNames())) {
+            int dot = key.lastIndexOf('.');
+            int category = dot > 0 ? CATEGORY_NAMES.indexOf(key.substring(dot + 1)) : -1;
+            if (category < 0)
+                throw new IllegalArgumentException("Not a keyword category: " + key);
+            byPack.computeIfAbsent(key.substring(0, dot), pack -> new LinkedHashMap<>()).put(1 << category, packs.getProperty(key));
+        }
+        List<String> used = new ArrayList<>();
+        Node root = new Node();
+        for (Map.Entry<String, Map<Integer, String>> pack : byPack.entrySet()) {
+            if (active != null && !active.contains(pack.getKey()))
+                continue;
+            used.add(pack.getKey());
+            for (Map.Entry<Integer, String> words : pack.getValue().entrySet()) {
+                for (String word : words.getValue().trim().split("\\s+")) {
+                    //The tokenizer drops the dots after a century before looking it up
+                    if (words.getKey() == CENTURY)
+                        word = stripTrailingDots(word);
+                    if (!word.isEmpty())
+                        add(root, word, words.getKey());
+                }
+            }
+        }
+        if (active != null && used.size() < active.size())
+            LOG.warn("Unknown keyword packs in " + active + ", using " + used);
+        return new DateKeywords(root, used);
+    }
+
+    public List<String> getPacks() {
+        return packs;
+    }
+
+    /**
+     * @return the categories c for which value[from, to) is a concatenation of zero or more
+     * words of c; ALL for an empty range
+     */
+    public int categories(String value, int from, int to) {
+        if (from >= to)
+            return from == to ? ALL : 0;
+        int[] reachable = new int[to - from + 1];
+        reachable[0] = ALL;
+        for (int i = from; i < to; i++) {
+            int categories = reachable[i - from];
+            if (categories == 0)
+                continue;
+            Node node = root;
+            for (int j = i; j < to && (node = node.child(value.charAt(j))) != null; j++) {
+                if ((node.categories & categories) != 0)
+                    reachable[j + 1 - from] |= node.categories & categories;
+            }
+        }
+        return reachable[to - from];
+    }
+
+    private static String stripTrailingDots(String word) {
+        int end = word.length();
+        while (end > 0 && word.charAt(end - 1) == '.')
+            end--;
+        if (end == 0 && !word.isEmpty())
+            throw new IllegalArgumentException("A century keyword may not consist of dots only: " + word);
+        return word.substring(0, end);
+    }
+
+    private static void add(Node root, String word, int category) {
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (DateTokenizer.isDigit(c) || DateTokenizer.isWhitespace(c))
+                throw new IllegalArgumentException("Keywords may not contain digits or white space: " + word);
+        }
+        Node node = root;
+        for (int i = 0; i < word.length(); i++)
+            node = node.childOrNew(word.charAt(i));
+        node.categories |= category;
+    }
+
+    private static DateKeywords load() {
+        String active = System.getProperty("xsltplugin.datenormalization.keyword_packs");
+        return load(System.getProperty("xsltplugin.datenormalization.keyword_file"),
+                active == null ? null : Arrays.asList(active.trim().split("\\s*,\\s*")));
+    }
+
+    /**
+     * @param file the configured packs, merged into the bundled ones, or null for the bundled
+     *             packs only, which are also used when the configured file cannot be read or
+     *             compiled: an empty trie would reject every date with a keyword
+     * @param active the names of the packs to use, or null for all
+     */
+    static DateKeywords load(String file, List<String> active) {
+        Properties packs = new Properties();
+        try (InputStream in = DateKeywords.class.getResourceAsStream(RESOURCE)) {
+            if (in == null)
+                throw new IOException(RESOURCE + " is not on the classpath");
+            packs.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Could not read the date keywords from " + RESOURCE + ": " + e.getMessage());
+            packs.clear();
+        }
+        if (file != null) {
+            try {
+                Properties extra = new Properties();
+                try (InputStream in = new FileInputStream(file)) {
+                    extra.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+                }
+                Properties merged = new Properties();
+                merged.putAll(packs);
+                //A pack in the file replaces the pack of the same name
+                for (String key : extra.stringPropertyNames()) {
+                    String pack = key.substring(0, Math.max(0, key.lastIndexOf('.'))) + ".";
+                    packs.stringPropertyNames().stream().filter(name -> name.startsWith(pack)).forEach(merged::remove);
+                }
+                merged.putAll(extra);
+                DateKeywords keywords = compile(merged, active);
+                LOG.debug("Date keyword packs: " + keywords.getPacks() + " with " + file);
+                return keywords;
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.error("Could not read the date keywords from " + file + ", using " + RESOURCE + " only: " + e.getMessage());
+            }
+        }
+        try {
+            DateKeywords keywords = compile(packs, active);
+            LOG.debug("Date keyword packs: " + keywords.getPacks());
+            return keywords;
+        } catch (IllegalArgumentException e) {
+            LOG.error("Could not compile the date keywords of " + RESOURCE + ": " + e.getMessage());
+            return new DateKeywords(new Node(), new ArrayList<>());
+        }
+    }
+
+    /**
+     * A trie node. The children are kept in two small parallel arrays, searched linearly. Nodes
+     * are only changed while compiling.
+     */
+    private static class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private int categories;
+
+        Node child(char c) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == c)
+                    return children[i];
+            }
+            return null;
+        }
+
+        Node childOrNew(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
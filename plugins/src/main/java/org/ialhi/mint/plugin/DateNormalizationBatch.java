@@ -0,0 +1,108 @@
+package org.ialhi.mint.plugin;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.SequenceExtent;
+import net.sf.saxon.value.SequenceType;
+import net.sf.saxon.value.StringValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ape:normalizeDates(xs:string*) normalizes a whole sequence of dates in one call, for instance every
+ * unitdate of an archival description. The result has one item per input, in the same order; dates
+ * that cannot be normalized give an empty string, as they do with ape:normalizeDate.
+ * <p>
+ * Each distinct value is normalized once, but an unmatched date is counted in the unmatched date
+ * statistics every time it occurs. The conversion table and the cache are those of the
+ * DateNormalization passed in, so register both functions with the same instance.
+ */
+public class DateNormalizationBatch extends ExtensionFunctionDefinition {
+
+    private static final StructuredQName FUNCTION_NAME = new StructuredQName("ape", "http://www.archivesportaleurope.net/functions", "normalizeDates");
+
+    private final DateNormalization dateNormalization;
+
+    public DateNormalizationBatch(String... baseURI) {
+        this(new DateNormalization(baseURI));
+    }
+
+    public DateNormalizationBatch(DateNormalization dateNormalization) {
+        super();
+        this.dateNormalization = dateNormalization;
+    }
+
+    @Override
+    public StructuredQName getFunctionQName() {
+        return FUNCTION_NAME;
+    }
+
+    @Override
+    public int getMinimumNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public int getMaximumNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public SequenceType[] getArgumentTypes() {
+        return new SequenceType[]{SequenceType.STRING_SEQUENCE};
+    }
+
+    @Override
+    public SequenceType getResultType(SequenceType[] sequenceTypes) {
+        return SequenceType.STRING_SEQUENCE;
+    }
+
+    @Override
+    public ExtensionFunctionCall makeCallExpression() {
+        return new DateNormalizationBatchCall();
+    }
+
+    public class DateNormalizationBatchCall extends ExtensionFunctionCall {
+
+        public Sequence call(XPathContext xPathContext, Sequence[] arguments) throws XPathException {
+            List<String> dates = new ArrayList<>();
+            SequenceIterator iterator = arguments[0].iterate();
+            for (Item item = iterator.next(); item != null; item = iterator.next())
+                dates.add(item.getStringValue());
+            List<StringValue> out = new ArrayList<>(dates.size());
+            for (String normalized : normalizeDates(dates))
+                out.add(StringValue.makeStringValue(normalized));
+            return new SequenceExtent(out);
+        }
+    }
+
+    /**
+     * @return the normalized dates, aligned with the input and null where no normalization was found
+     */
+    public List<String> normalizeDates(List<String> dates) {
+        Map<String, String> distinct = new HashMap<>();
+        List<String> out = new ArrayList<>(dates.size());
+        for (String date : dates) {
+            String normalized;
+            if (!distinct.containsKey(date)) {
+                normalized = dateNormalization.normalize(date);
+                distinct.put(date, normalized);
+            } else {
+                normalized = distinct.get(date);
+                if (normalized == null)
+                    dateNormalization.getUnmatchedDates().record(date);
+            }
+            out.add(normalized);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,135 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.log4j.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Optional pass over an input document before it is transformed: collects the distinct dates in
+ * it and normalizes them in parallel, so ape:normalizeDate only finds them in the cache of the
+ * DateNormalization during the single threaded transformation.
+ * <p>
+ * The dates are the string values of the elements named in the system property
+ * xsltplugin.datenormalization.prepass_elements (comma separated local names, unitdate by
+ * default), both as they are and with their white space normalized, as a stylesheet may pass
+ * either. They are normalized on a fork-join pool of xsltplugin.datenormalization.prepass_threads
+ * threads, one per core by default. No more dates are collected than the cache holds.
+ */
+public class DateNormalizationPrepass {
+    private static final Logger LOG = Logger.getLogger(DateNormalizationPrepass.class);
+    private static final List<String> ELEMENTS = Arrays.asList(System.getProperty("xsltplugin.datenormalization.prepass_elements", "unitdate").split("\\s*,\\s*"));
+    private static final int THREADS = Integer.getInteger("xsltplugin.datenormalization.prepass_threads", Runtime.getRuntime().availableProcessors());
+
+    private final DateNormalization dateNormalization;
+
+    public DateNormalizationPrepass(DateNormalization dateNormalization) {
+        this.dateNormalization = dateNormalization;
+    }
+
+    /**
+     * @return the number of distinct dates normalized
+     */
+    public int run(File document) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(document))) {
+            return run(in);
+        }
+    }
+
+    /**
+     * @return the number of distinct dates normalized
+     */
+    public int run(InputStream document) {
+        long start = System.currentTimeMillis();
+        Set<String> dates = collect(document, dateNormalization.getCache().getMaximumSize());
+        if (dates.isEmpty())
+            return 0;
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            pool.submit(() -> dates.parallelStream().forEach(dateNormalization::warm)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("Could not normalize the dates in advance: " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        LOG.info("Normalized " + dates.size() + " distinct dates in advance in " + (System.currentTimeMillis() - start) + " ms");
+        return dates.size();
+    }
+
+    /**
+     * Streams the document and returns the distinct values of the date elements, at most max.
+     */
+    Set<String> collect(InputStream document, int max) {
+        Set<String> dates = new HashSet<>();
+        if (max <= 0)
+            return dates;
+        XMLStreamReader reader = null;
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            reader = factory.createXMLStreamReader(document);
+            StringBuilder text = null;
+            int depth = 0;
+            while (reader.hasNext() && dates.size() < max) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (text != null)
+                        depth++;
+                    else if (ELEMENTS.contains(reader.getLocalName()))
+                        text = new StringBuilder();
+                } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA) {
+                    if (text != null)
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                } else if (event == XMLStreamConstants.END_ELEMENT && text != null) {
+                    if (depth-- > 0)
+                        continue;
+                    depth = 0;
+                    String date = text.toString();
+                    dates.add(date);
+                    String normalized = normalizeSpace(date);
+                    if (!normalized.isEmpty() && !normalized.equals(date))
+                        dates.add(normalized);
+                    text = null;
+                }
+            }
+        } catch (XMLStreamException e) {
+            LOG.warn("Stopped collecting dates after " + dates.size() + ": " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    LOG.debug("Could not close the reader");
+                }
+            }
+        }
+        return dates;
+    }
+
+    /* As XPath normalize-space */
+    private static String normalizeSpace(String value) {
+        List<String> words = new ArrayList<>();
+        for (String word : value.split("[ \t\r\n]+")) {
+            if (!word.isEmpty())
+                words.add(word);
+        }
+        return String.join(" ", words);
+    }
+}
@@ -0,0 +1,151 @@
+package org.ialhi.mint.plugin;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ConversionRules;
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.type.ConversionResult;
+import net.sf.saxon.value.AtomicValue;
+import net.sf.saxon.value.DateValue;
+import net.sf.saxon.value.GYearMonthValue;
+import net.sf.saxon.value.GYearValue;
+import net.sf.saxon.value.SequenceExtent;
+import net.sf.saxon.value.SequenceType;
+import net.sf.saxon.value.StringValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ape:normalizeDateRange(xs:string?) normalizes a date like ape:normalizeDate, but returns the parts
+ * of the result instead of the "start/end" string, so stylesheets do not have to tokenize it again:
+ * <ol>
+ * <li>the start, an xs:gYear, xs:gYearMonth or xs:date depending on its precision</li>
+ * <li>the end, typed the same way; equal to the start for a single date</li>
+ * <li>the precision as an xs:string: year, month or day, or start and end precision separated by
+ * a slash when they differ, for instance day/year</li>
+ * </ol>
+ * The result is empty if the date cannot be normalized, or if the normalized value (for instance
+ * one from the dateconversion.xml) is not a valid date.
+ * <p>
+ * The conversion table and the cache are those of the DateNormalization passed in.
+ */
+public class DateNormalizationRange extends ExtensionFunctionDefinition {
+
+    private static final StructuredQName FUNCTION_NAME = new StructuredQName("ape", "http://www.archivesportaleurope.net/functions", "normalizeDateRange");
+
+    private final DateNormalization dateNormalization;
+
+    public DateNormalizationRange(String... baseURI) {
+        this(new DateNormalization(baseURI));
+    }
+
+    public DateNormalizationRange(DateNormalization dateNormalization) {
+        super();
+        this.dateNormalization = dateNormalization;
+    }
+
+    @Override
+    public StructuredQName getFunctionQName() {
+        return FUNCTION_NAME;
+    }
+
+    @Override
+    public int getMinimumNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public int getMaximumNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public SequenceType[] getArgumentTypes() {
+        return new SequenceType[]{SequenceType.OPTIONAL_STRING};
+    }
+
+    @Override
+    public SequenceType getResultType(SequenceType[] sequenceTypes) {
+        return SequenceType.ATOMIC_SEQUENCE;
+    }
+
+    @Override
+    public ExtensionFunctionCall makeCallExpression() {
+        return new DateNormalizationRangeCall();
+    }
+
+    public class DateNormalizationRangeCall extends ExtensionFunctionCall {
+
+        public Sequence call(XPathContext xPathContext, Sequence[] arguments) throws XPathException {
+            StringValue date = (StringValue) arguments[0].head();
+            if (date == null)
+                return SequenceExtent.makeSequenceExtent(Collections.<AtomicValue>emptyList());
+            ConversionRules rules = xPathContext.getConfiguration().getConversionRules();
+            return SequenceExtent.makeSequenceExtent(normalizeRange(date.getStringValue(), rules));
+        }
+    }
+
+    /**
+     * @return start, end and precision, or an empty list
+     */
+    public List<AtomicValue> normalizeRange(String date, ConversionRules rules) {
+        String normalized = dateNormalization.normalize(date);
+        if (normalized == null)
+            return Collections.emptyList();
+        int slash = normalized.indexOf('/');
+        String start = slash < 0 ? normalized : normalized.substring(0, slash);
+        AtomicValue startValue = toValue(start, rules);
+        if (startValue == null)
+            return Collections.emptyList();
+        if (slash < 0)
+            return Arrays.asList(startValue, startValue, new StringValue(precision(start)));
+        String end = normalized.substring(slash + 1);
+        AtomicValue endValue = toValue(end, rules);
+        if (endValue == null)
+            return Collections.emptyList();
+        String precision = precision(start);
+        if (!precision.equals(precision(end)))
+            precision = precision + "/" + precision(end);
+        return Arrays.asList(startValue, endValue, new StringValue(precision));
+    }
+
+    /* yyyy, yyyy-mm, yyyy-mm-dd or the compact yyyymmdd, optionally negative */
+    private static AtomicValue toValue(String part, ConversionRules rules) {
+        String value = part;
+        int year = value.startsWith("-") ? 5 : 4;
+        if (value.length() == year + 4 && isDigits(value))
+            value = value.substring(0, year) + "-" + value.substring(year, year + 2) + "-" + value.substring(year + 2);
+        ConversionResult result;
+        if (value.length() == year)
+            result = GYearValue.makeGYearValue(value, rules);
+        else if (value.length() == year + 3)
+            result = GYearMonthValue.makeGYearMonthValue(value, rules);
+        else if (value.length() == year + 6)
+            result = DateValue.makeDateValue(value, rules);
+        else
+            return null;
+        return result instanceof AtomicValue ? (AtomicValue) result : null;
+    }
+
+    private static String precision(String part) {
+        int digits = 0;
+        for (int i = 0; i < part.length(); i++) {
+            if (DateTokenizer.isDigit(part.charAt(i)))
+                digits++;
+        }
+        return digits <= 4 ? "year" : digits <= 6 ? "month" : "day";
+    }
+
+    private static boolean isDigits(String value) {
+        for (int i = value.startsWith("-") ? 1 : 0; i < value.length(); i++) {
+            if (!DateTokenizer.isDigit(value.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package org.ialhi.mint.plugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Normalizes a file of dates, one per line, with the same logic and dateconversion.xml as
+ * ape:normalizeDate, to profile the dates of an archive outside of MINT:
+ * <pre>java org.ialhi.mint.plugin.DateNormalizationTool [-baseURI dir] [-threads n] [-unmatched file.xml] input.txt [output.txt]</pre>
+ * Each output line is the normalized date, or NULL, in the order of the input. The input is read
+ * in chunks of CHUNK_SIZE lines that are normalized by a pool of worker threads, one per core by
+ * default; at most two chunks per worker are in memory at a time. Without an output file the
+ * result goes to the standard output. Throughput and the hits per rule are reported on the
+ * standard error, and -unmatched writes the most frequent dates that were not normalized as a
+ * dateconversion.xml fragment.
+ */
+public class DateNormalizationTool {
+    private static final int CHUNK_SIZE = 4096;
+    private static final String NULL = "NULL";
+
+    private final DateNormalization dateNormalization;
+    private final int threads;
+
+    private long lines;
+    private long normalized;
+
+    public DateNormalizationTool(DateNormalization dateNormalization, int threads) {
+        this.dateNormalization = dateNormalization;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String baseURI = "";
+        int threads = Runtime.getRuntime().availableProcessors();
+        File unmatched = null;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-baseURI".equals(args[i]) && i + 1 < args.length)
+                baseURI = args[++i];
+            else if ("-threads".equals(args[i]) && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if ("-unmatched".equals(args[i]) && i + 1 < args.length)
+                unmatched = new File(args[++i]);
+            else
+                files.add(args[i]);
+        }
+        if (files.isEmpty() || files.size() > 2 || threads < 1) {
+            System.err.println("Usage: DateNormalizationTool [-baseURI <dir with dateconversion.xml>] [-threads <n>] [-unmatched <file.xml>] <input> [<output>]");
+            System.exit(1);
+        }
+
+        DateNormalizationTool tool = new DateNormalizationTool(new DateNormalization(baseURI), threads);
+        try (Reader in = new InputStreamReader(new FileInputStream(files.get(0)), StandardCharsets.UTF_8);
+             Writer out = new OutputStreamWriter(files.size() == 2 ? new FileOutputStream(files.get(1)) : System.out, StandardCharsets.UTF_8)) {
+            tool.run(in, out, System.err);
+        }
+        if (unmatched != null) {
+            tool.dateNormalization.getUnmatchedDates().writeFragment(unmatched);
+            System.err.println("Wrote the most frequent unmatched dates to " + unmatched.getPath());
+        }
+    }
+
+    /**
+     * Normalizes every line of the input into a line of the output, reporting to report.
+     */
+    public void run(Reader input, Writer output, PrintStream report) throws IOException, InterruptedException {
+        Map<DateRule, Long> hitsBefore = ruleHits();
+        long start = System.nanoTime();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String[]>> pending = new ArrayDeque<>();
+        try {
+            BufferedReader reader = new BufferedReader(input, 1 << 16);
+            BufferedWriter writer = new BufferedWriter(output, 1 << 16);
+            String[] chunk = new String[CHUNK_SIZE];
+            int size = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                chunk[size++] = line;
+                if (size == CHUNK_SIZE) {
+                    if (pending.size() >= 2 * threads)
+                        write(pending.removeFirst(), writer);
+                    pending.addLast(submit(workers, chunk, size));
+                    chunk = new String[CHUNK_SIZE];
+                    size = 0;
+                }
+            }
+            if (size > 0)
+                pending.addLast(submit(workers, chunk, size));
+            while (!pending.isEmpty())
+                write(pending.removeFirst(), writer);
+            writer.flush();
+        } finally {
+            workers.shutdownNow();
+        }
+        report(report, System.nanoTime() - start, hitsBefore);
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getNormalized() {
+        return normalized;
+    }
+
+    private Future<String[]> submit(ExecutorService workers, String[] chunk, int size) {
+        return workers.submit(() -> {
+            String[] out = new String[size];
+            for (int i = 0; i < size; i++)
+                out[i] = dateNormalization.normalize(chunk[i]);
+            return out;
+        });
+    }
+
+    private void write(Future<String[]> chunk, Writer writer) throws IOException, InterruptedException {
+        String[] out;
+        try {
+            out = chunk.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Normalization failed", e.getCause());
+        }
+        for (String date : out) {
+            lines++;
+            if (date != null)
+                normalized++;
+            writer.write(date != null ? date : NULL);
+            writer.write('\n');
+        }
+    }
+
+    private void report(PrintStream report, long nanos, Map<DateRule, Long> hitsBefore) {
+        double seconds = nanos / 1e9;
+        report.println(String.format("%d dates in %.2f s (%.0f dates/s), threads: %d", lines, seconds, lines / Math.max(seconds, 1e-9), threads));
+        report.println(String.format("%d normalized (%.1f%%), %d NULL", normalized, lines == 0 ? 0 : 100.0 * normalized / lines, lines - normalized));
+        BoundedCache<String, String> cache = dateNormalization.getCache();
+        report.println(String.format("Cache: %d hits, %d misses (%.1f%% hit rate)", cache.getHits(), cache.getMisses(), 100 * cache.getHitRate()));
+        report.println("Rule hits (values normalized by the cascade, repeated values come from the cache):");
+        for (Map.Entry<DateRule, Long> hits : ruleHits().entrySet()) {
+            long count = hits.getValue() - hitsBefore.get(hits.getKey());
+            if (count > 0)
+                report.println(String.format("  %-28s %d", hits.getKey(), count));
+        }
+        for (GuardedMatcher guard : GuardedMatcher.getGuards()) {
+            if (guard.getTrips() > 0)
+                report.println(guard);
+        }
+    }
+
+    private static Map<DateRule, Long> ruleHits() {
+        Map<DateRule, Long> hits = new EnumMap<>(DateRule.class);
+        for (DateRule rule : DateRule.values())
+            hits.put(rule, rule.getHits());
+        return hits;
+    }
+}
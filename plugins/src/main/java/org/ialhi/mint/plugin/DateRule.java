@@ -0,0 +1,356 @@
+package org.ialhi.mint.plugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * The normalization rules of {@link DateNormalization}, in the order they are tried.
+ * <p>
+ * Each rule knows how many digits an input needs to match it, which lets {@link DateTokenizer}
+ * skip all rules that cannot apply. The comment above each rule gives the regular expression it
+ * replaces; apply returns exactly what that expression and its formatting used to return. The
+ * keywords of those expressions are now the en, fr, de, nl and la packs of {@link DateKeywords},
+ * other packs add languages.
+ * <p>
+ * Every rule counts its hits. With the system property xsltplugin.datenormalization.adaptive set
+ * to true, the rules of each digit count are tried by descending hits instead, reordered at most
+ * once per REORDER_INTERVAL milliseconds. Rules that can match the same input are listed in
+ * PREDECESSORS and always keep their original relative order, so the result is the same in both
+ * modes; only the number of rules tried before the matching one changes.
+ */
+public enum DateRule {
+    //01.01.1985 - ([0-9]{2})\.([0-9]{2})\.([0-9]{4})
+    DD_MM_YYYY(8) {
+        String apply(DateTokenizer t) {
+            if (t.length == 10 && t.ddMmYyyy(0))
+                return t.sub(6, 10) + "-" + t.sub(3, 5) + "-" + t.sub(0, 2);
+            return null;
+        }
+    },
+    //198501 - (0|1|2)([0-9]{3})([0-9]{2})
+    YYYYMM(6) {
+        String apply(DateTokenizer t) {
+            if (t.length == 6 && t.year(0) && t.digits(4, 2))
+                return t.sub(0, 4) + "-" + t.sub(4, 6);
+            return null;
+        }
+    },
+    //1985.01.01 - ([0-9]{4})\.([0-9]{2})\.([0-9]{2})
+    YYYY_MM_DD(8) {
+        String apply(DateTokenizer t) {
+            if (t.length == 10 && t.yyyyMmDd(0))
+                return t.sub(0, 4) + "-" + t.sub(5, 7) + "-" + t.sub(8, 10);
+            return null;
+        }
+    },
+    //01.01.1985/02.01.1985 - dd.mm.yyyy\s?(/|\?|-)?\s?dd.mm.yyyy
+    DD_MM_YYYY_TIMESPAN(16) {
+        String apply(DateTokenizer t) {
+            int second = t.length - 10;
+            if (second >= 10 && t.ddMmYyyy(0) && t.ddMmYyyy(second) && t.optionals(10, second, TIMESPAN_SEPARATOR))
+                return ddMmYyyy(t, 0) + "/" + ddMmYyyy(t, second);
+            return null;
+        }
+    },
+    //1.1.1985 - 2.1.1985 - d.m.yyyy\s?(/|\?|-)?\s?d.m.yyyy
+    D_M_YYYY_TIMESPAN(12) {
+        String apply(DateTokenizer t) {
+            int second = t.length - 8;
+            if (second >= 8 && t.dMYyyy(0) && t.dMYyyy(second) && t.optionals(8, second, TIMESPAN_SEPARATOR))
+                return dMYyyy(t, 0) + "/" + dMYyyy(t, second);
+            return null;
+        }
+    },
+    //1985.01.01/1985.01.02 - yyyy.mm.dd\s?(/|\?|-)?\s?yyyy.mm.dd
+    YYYY_MM_DD_TIMESPAN(16) {
+        String apply(DateTokenizer t) {
+            int second = t.length - 10;
+            if (second >= 10 && t.yyyyMmDd(0) && t.yyyyMmDd(second) && t.optionals(10, second, TIMESPAN_SEPARATOR))
+                return t.sub(0, 4) + "-" + t.sub(5, 7) + "-" + t.sub(8, 10) + "/" + t.sub(second, second + 4) + "-" + t.sub(second + 5, second + 7) + "-" + t.sub(second + 8, second + 10);
+            return null;
+        }
+    },
+    //19850101, only if the year is above 1000
+    YYYYMMDD(8) {
+        String apply(DateTokenizer t) {
+            if (t.length == 8 && t.compactYyyyMmDd(0) && Integer.parseInt(t.sub(0, 4)) > 1000)
+                return t.sub(0, 4) + "-" + t.sub(4, 6) + "-" + t.sub(6, 8);
+            return null;
+        }
+    },
+    //19850101/19850102, only if the first year is above 1000
+    YYYYMMDD_TIMESPAN(16) {
+        String apply(DateTokenizer t) {
+            if (t.length == 17 && t.at(8) == '/' && t.compactYyyyMmDd(0) && t.compactYyyyMmDd(9) && Integer.parseInt(t.sub(0, 4)) > 1000)
+                return t.sub(0, 4) + "-" + t.sub(4, 6) + "-" + t.sub(6, 8) + "/" + t.sub(9, 13) + "-" + t.sub(13, 15) + "-" + t.sub(15, 17);
+            return null;
+        }
+    },
+    //01011985
+    DDMMYYYY(8) {
+        String apply(DateTokenizer t) {
+            if (t.length == 8 && t.compactDdMmYyyy(0))
+                return t.sub(4, 8) + "-" + t.sub(2, 4) + "-" + t.sub(0, 2);
+            return null;
+        }
+    },
+    //01011985/02011985
+    DDMMYYYY_TIMESPAN(16) {
+        String apply(DateTokenizer t) {
+            if (t.length == 17 && t.at(8) == '/' && t.compactDdMmYyyy(0) && t.compactDdMmYyyy(9))
+                return t.sub(4, 8) + "-" + t.sub(2, 4) + "-" + t.sub(0, 2) + "/" + t.sub(13, 17) + "-" + t.sub(11, 13) + "-" + t.sub(9, 11);
+            return null;
+        }
+    },
+    //1985--1986
+    YYYY_YYYY(8) {
+        String apply(DateTokenizer t) {
+            if (t.length == 10 && t.year(0) && t.at(4) == '-' && t.at(5) == '-' && t.year(6))
+                return t.sub(0, 4) + "/" + t.sub(6, 10);
+            return null;
+        }
+    },
+    //1985 - 1987, 1990 - \(?\[?yyyy\)?\]?\s*-*,?\s*yyyy\s*-*,?\s*\(?\[?yyyy\]?\)?\s*
+    YYYY_YYYY_YYYY(12) {
+        String apply(DateTokenizer t) {
+            //The three years are the only digits, so they are cut from the digit runs
+            int[] years = new int[3];
+            int found = 0;
+            for (int run = 0; run < t.runCount; run++) {
+                if (t.runLength[run] % 4 != 0)
+                    return null;
+                for (int offset = 0; offset < t.runLength[run]; offset += 4)
+                    years[found++] = t.runStart[run] + offset;
+            }
+            for (int year : years) {
+                if (!t.year(year))
+                    return null;
+            }
+            if (t.optionals(0, years[0], YEARS_OPEN)
+                    && t.optionals(years[0] + 4, years[1], YEARS_FIRST_SEPARATOR)
+                    && t.optionals(years[1] + 4, years[2], YEARS_SECOND_SEPARATOR)
+                    && t.optionals(years[2] + 4, t.length, YEARS_CLOSE))
+                return t.sub(years[0], years[0] + 4) + "/" + t.sub(years[2], years[2] + 4);
+            return null;
+        }
+    },
+    //03.07.1985 bis (to, à, etc.) 06.07.1985 - dd.mm.yyyy\D+dd.mm.yyyy
+    DD_MM_YYYY_TEXT_DD_MM_YYYY(16) {
+        String apply(DateTokenizer t) {
+            int second = t.length - 10;
+            if (second > 10 && t.ddMmYyyy(0) && t.ddMmYyyy(second))
+                return ddMmYyyy(t, 0) + "/" + ddMmYyyy(t, second);
+            return null;
+        }
+    },
+    //3.7.1985 bis (to, à, etc.) 6.7.1985 - d.m.yyyy\D+d.m.yyyy
+    D_M_YYYY_TEXT_D_M_YYYY(12) {
+        String apply(DateTokenizer t) {
+            int second = t.length - 8;
+            if (second > 8 && t.dMYyyy(0) && t.dMYyyy(second))
+                return dMYyyy(t, 0) + "/" + dMYyyy(t, second);
+            return null;
+        }
+    },
+    //1985 bis (to, à, etc.) 1988 - ([0-9]{4})\D*(\s\?\s)?([0-9]{4})
+    YYYY_TEXT_YYYY(8) {
+        String apply(DateTokenizer t) {
+            if (t.digits(0, 4) && t.digits(t.length - 4, 4))
+                return t.sub(0, 4) + "/" + t.sub(t.length - 4, t.length);
+            return null;
+        }
+    },
+    //avant 1985 - (avant|vor|before)*\s*([0-9]{4})
+    BEFORE_YYYY(4) {
+        String apply(DateTokenizer t) {
+            if (t.digits(t.length - 4, 4) && t.wordsThenWhitespace(0, t.length - 4, DateKeywords.BEFORE, false))
+                return "0001/" + t.sub(t.length - 4, t.length);
+            return null;
+        }
+    },
+    //apres 1985 - (apres|après|nach|after)*\s*([0-9]{4})
+    AFTER_YYYY(4) {
+        String apply(DateTokenizer t) {
+            if (t.digits(t.length - 4, 4) && t.wordsThenWhitespace(0, t.length - 4, DateKeywords.AFTER, false))
+                return t.sub(t.length - 4, t.length) + "/2099";
+            return null;
+        }
+    },
+    //around 1985 - (environ|around|ca\.?|env\.?|etwa\.?|um\.?)*\s*([0-9]{4})
+    AROUND_YYYY(4) {
+        String apply(DateTokenizer t) {
+            if (t.digits(t.length - 4, 4) && t.wordsThenWhitespace(0, t.length - 4, DateKeywords.AROUND, false))
+                return t.sub(t.length - 4, t.length);
+            return null;
+        }
+    },
+    //century - (1[0-9]{1})(ieme|\.|th|de|e|tes)* (siècle|...|eeuw)*\s*\.*
+    CENTURY(2) {
+        String apply(DateTokenizer t) {
+            if (t.runCount != 1 || t.runStart[0] != 0 || t.at(0) != '1')
+                return null;
+            int space = t.date.indexOf(' ', 2);
+            if (space > 0 && t.words(2, space, DateKeywords.ORDINAL) && t.wordsThenWhitespace(space + 1, t.length, DateKeywords.CENTURY, true))
+                return (Integer.parseInt(t.sub(0, 2)) - 1) + "00/" + t.sub(0, 2) + "00";
+            return null;
+        }
+    },
+    //century timespan - (1[0-9]{1})(ordinal)* (bis|a|to|bis|à)* (1[0-9]{1})(ordinal)* (century)*\s*\.*
+    CENTURY_TIMESPAN(4) {
+        String apply(DateTokenizer t) {
+            if (t.runCount != 2 || t.runStart[0] != 0 || t.runLength[0] != 2 || t.at(0) != '1')
+                return null;
+            int second = t.runStart[1];
+            if (t.runLength[1] != 2 || t.at(second) != '1' || t.at(second - 1) != ' ')
+                return null;
+            int space = t.date.indexOf(' ', 2);
+            if (space >= second - 1 || !t.words(2, space, DateKeywords.ORDINAL) || !t.words(space + 1, second - 1, DateKeywords.CONNECTOR))
+                return null;
+            int lastSpace = t.date.indexOf(' ', second + 2);
+            if (lastSpace > 0 && t.words(second + 2, lastSpace, DateKeywords.ORDINAL) && t.wordsThenWhitespace(lastSpace + 1, t.length, DateKeywords.CENTURY, true))
+                return (Integer.parseInt(t.sub(0, 2)) - 1) + "00/" + t.sub(second, second + 2) + "00";
+            return null;
+        }
+    };
+
+    private static final String[][] TIMESPAN_SEPARATOR = {{DateTokenizer.WS, "?"}, {"/?-", "?"}, {DateTokenizer.WS, "?"}};
+    private static final String[][] YEARS_OPEN = {{"(", "?"}, {"[", "?"}};
+    private static final String[][] YEARS_FIRST_SEPARATOR = {{")", "?"}, {"]", "?"}, {DateTokenizer.WS, "*"}, {"-", "*"}, {",", "?"}, {DateTokenizer.WS, "*"}};
+    private static final String[][] YEARS_SECOND_SEPARATOR = {{DateTokenizer.WS, "*"}, {"-", "*"}, {",", "?"}, {DateTokenizer.WS, "*"}, {"(", "?"}, {"[", "?"}};
+    private static final String[][] YEARS_CLOSE = {{"]", "?"}, {")", "?"}, {DateTokenizer.WS, "*"}};
+
+
+    private static final boolean ADAPTIVE = Boolean.getBoolean("xsltplugin.datenormalization.adaptive");
+    private static final long REORDER_INTERVAL = 1000;
+
+    private static final DateRule[][] BY_DIGIT_COUNT = new DateRule[17][];
+    private static final DateRule[] NONE = new DateRule[0];
+    private static final Map<DateRule, Set<DateRule>> PREDECESSORS = new EnumMap<>(DateRule.class);
+
+    static {
+        for (int digits = 0; digits < BY_DIGIT_COUNT.length; digits++) {
+            List<DateRule> rules = new ArrayList<>();
+            for (DateRule rule : values()) {
+                if (rule.digitCount == digits)
+                    rules.add(rule);
+            }
+            BY_DIGIT_COUNT[digits] = rules.toArray(NONE);
+        }
+        for (DateRule rule : values())
+            PREDECESSORS.put(rule, EnumSet.noneOf(DateRule.class));
+        //A bare year matches all three
+        keepOrder(BEFORE_YYYY, AFTER_YYYY, AROUND_YYYY);
+        //10101985 is both, and any two years of four digits around text are YYYY_TEXT_YYYY
+        keepOrder(YYYYMMDD, DDMMYYYY, YYYY_TEXT_YYYY);
+        keepOrder(YYYY_YYYY, YYYY_TEXT_YYYY);
+        keepOrder(YYYYMMDD_TIMESPAN, DDMMYYYY_TIMESPAN);
+        //Any separator is text as well
+        keepOrder(DD_MM_YYYY_TIMESPAN, DD_MM_YYYY_TEXT_DD_MM_YYYY);
+        keepOrder(D_M_YYYY_TIMESPAN, D_M_YYYY_TEXT_D_M_YYYY);
+    }
+
+    private static volatile DateRule[][] order = BY_DIGIT_COUNT;
+    private static volatile long lastReordered;
+
+    private final int digitCount;
+    private final LongAdder hits = new LongAdder();
+
+    DateRule(int digitCount) {
+        this.digitCount = digitCount;
+    }
+
+    abstract String apply(DateTokenizer t);
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    public static boolean isAdaptive() {
+        return ADAPTIVE;
+    }
+
+    /**
+     * @return the rules that need this number of digits, in the order they are to be tried
+     */
+    static DateRule[] forDigitCount(int digitCount) {
+        if (digitCount >= BY_DIGIT_COUNT.length)
+            return NONE;
+        if (!ADAPTIVE)
+            return BY_DIGIT_COUNT[digitCount];
+        long now = System.currentTimeMillis();
+        if (now - lastReordered >= REORDER_INTERVAL) {
+            lastReordered = now;
+            reorder();
+        }
+        return order[digitCount];
+    }
+
+    /**
+     * @return the rules that need this number of digits in their original order
+     */
+    static DateRule[] fixedOrder(int digitCount) {
+        if (digitCount >= BY_DIGIT_COUNT.length)
+            return NONE;
+        return BY_DIGIT_COUNT[digitCount];
+    }
+
+    /**
+     * Publishes a new order of all rules by their current hits. Readers keep using the order they
+     * already have.
+     */
+    static void reorder() {
+        Map<DateRule, Long> counts = new EnumMap<>(DateRule.class);
+        for (DateRule rule : values())
+            counts.put(rule, rule.getHits());
+        DateRule[][] reordered = new DateRule[BY_DIGIT_COUNT.length][];
+        for (int digits = 0; digits < BY_DIGIT_COUNT.length; digits++)
+            reordered[digits] = order(BY_DIGIT_COUNT[digits], counts::get);
+        order = reordered;
+    }
+
+    /**
+     * Orders the rules by descending weight, except that a rule never comes before its
+     * predecessors. Equal weights keep the original order.
+     */
+    static DateRule[] order(DateRule[] rules, ToLongFunction<DateRule> weight) {
+        List<DateRule> remaining = new ArrayList<>(Arrays.asList(rules));
+        DateRule[] ordered = new DateRule[rules.length];
+        for (int i = 0; i < ordered.length; i++) {
+            DateRule next = null;
+            for (DateRule rule : remaining) {
+                if (Collections.disjoint(PREDECESSORS.get(rule), remaining)
+                        && (next == null || weight.applyAsLong(rule) > weight.applyAsLong(next)))
+                    next = rule;
+            }
+            ordered[i] = next;
+            remaining.remove(next);
+        }
+        return ordered;
+    }
+
+    /* Each rule keeps coming after all the rules listed before it */
+    private static void keepOrder(DateRule... rules) {
+        for (int i = 1; i < rules.length; i++)
+            PREDECESSORS.get(rules[i]).addAll(Arrays.asList(rules).subList(0, i));
+    }
+
+    private static String ddMmYyyy(DateTokenizer t, int from) {
+        return t.sub(from + 6, from + 10) + "-" + t.sub(from + 3, from + 5) + "-" + t.sub(from, from + 2);
+    }
+
+    private static String dMYyyy(DateTokenizer t, int from) {
+        return t.sub(from + 4, from + 8) + "-" + "0" + t.sub(from + 2, from + 3) + "-" + "0" + t.sub(from, from + 1);
+    }
+}
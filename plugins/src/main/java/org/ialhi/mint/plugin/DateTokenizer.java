@@ -0,0 +1,212 @@
+package org.ialhi.mint.plugin;
+
+/**
+ * Single pass scanner over a date string.
+ * <p>
+ * The scan records how many ASCII digits the input holds and where the digit runs are. Every
+ * {@link DateRule} needs a fixed number of digits, so that count alone selects the few rules that
+ * can possibly match. They are tried in their original order, unless the adaptive order is on.
+ * Inputs without a usable digit count are rejected without looking any further. The rules then
+ * check the exact shape (separators, keywords) with the helper methods below, none of which
+ * backtracks.
+ */
+public class DateTokenizer {
+    static final int MAX_RUNS = 6;
+    static final String WS = " \t\n\u000B\f\r";
+
+    final String date;
+    final int length;
+    int digitCount;
+    int runCount;
+    final int[] runStart = new int[MAX_RUNS];
+    final int[] runLength = new int[MAX_RUNS];
+
+    private final DateKeywords keywords;
+    private int lastFrom = -1;
+    private int lastTo = -1;
+    private int lastCategories;
+
+    public DateTokenizer(String date) {
+        this(date, DateKeywords.getDefault());
+    }
+
+    public DateTokenizer(String date, DateKeywords keywords) {
+        this.date = date;
+        this.keywords = keywords;
+        this.length = date.length();
+        int run = -1;
+        for (int i = 0; i < length; i++) {
+            if (isDigit(date.charAt(i))) {
+                digitCount++;
+                if (run < 0) {
+                    run = i;
+                    if (runCount < MAX_RUNS)
+                        runStart[runCount] = i;
+                }
+            } else if (run >= 0) {
+                endRun(run, i);
+                run = -1;
+            }
+        }
+        if (run >= 0)
+            endRun(run, length);
+    }
+
+    private void endRun(int start, int end) {
+        if (runCount < MAX_RUNS)
+            runLength[runCount] = end - start;
+        runCount++;
+    }
+
+    /**
+     * @return the normalized date of the first rule that matches, or null if none does
+     */
+    public String normalize() {
+        return normalize(DateRule.forDigitCount(digitCount));
+    }
+
+    String normalize(DateRule[] rules) {
+        if (runCount > MAX_RUNS)
+            return null;
+        for (DateRule rule : rules) {
+            String out = rule.apply(this);
+            if (out != null) {
+                rule.hit();
+                return out;
+            }
+        }
+        return null;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isWhitespace(char c) {
+        return WS.indexOf(c) >= 0;
+    }
+
+    String sub(int from, int to) {
+        return date.substring(from, to);
+    }
+
+    char at(int i) {
+        return date.charAt(i);
+    }
+
+    boolean digits(int from, int count) {
+        if (from < 0 || from + count > length)
+            return false;
+        for (int i = from; i < from + count; i++) {
+            if (!isDigit(date.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /* (0|1|2)[0-9]{3} */
+    boolean year(int from) {
+        return digits(from, 4) && date.charAt(from) <= '2';
+    }
+
+    /* 01|02|...|12 */
+    boolean month(int from) {
+        if (!digits(from, 2))
+            return false;
+        char first = date.charAt(from), second = date.charAt(from + 1);
+        return (first == '0' && second != '0') || (first == '1' && second <= '2');
+    }
+
+    /* (0[1-9])|((1|2)[0-9])|(3[0-1]) */
+    boolean day(int from) {
+        if (!digits(from, 2))
+            return false;
+        char first = date.charAt(from), second = date.charAt(from + 1);
+        return (first == '0' && second != '0') || first == '1' || first == '2' || (first == '3' && second <= '1');
+    }
+
+    /* [1-9] */
+    boolean nonZeroDigit(int i) {
+        return i >= 0 && i < length && date.charAt(i) >= '1' && date.charAt(i) <= '9';
+    }
+
+    /* ([0-9]{2})\.([0-9]{2})\.([0-9]{4}) */
+    boolean ddMmYyyy(int from) {
+        return from >= 0 && from + 10 <= length && digits(from, 2) && date.charAt(from + 2) == '.'
+                && digits(from + 3, 2) && date.charAt(from + 5) == '.' && digits(from + 6, 4);
+    }
+
+    /* ([0-9]{4})\.([0-9]{2})\.([0-9]{2}) */
+    boolean yyyyMmDd(int from) {
+        return from >= 0 && from + 10 <= length && digits(from, 4) && date.charAt(from + 4) == '.'
+                && digits(from + 5, 2) && date.charAt(from + 7) == '.' && digits(from + 8, 2);
+    }
+
+    /* ([1-9]{1})\.([1-9]{1})\.([0-9]{4}) */
+    boolean dMYyyy(int from) {
+        return from >= 0 && from + 8 <= length && nonZeroDigit(from) && date.charAt(from + 1) == '.'
+                && nonZeroDigit(from + 2) && date.charAt(from + 3) == '.' && digits(from + 4, 4);
+    }
+
+    /* ((0|1|2)([0-9]{3}))(month)(day) */
+    boolean compactYyyyMmDd(int from) {
+        return year(from) && month(from + 4) && day(from + 6);
+    }
+
+    /* (day)(month)((0|1|2)([0-9]{3})) */
+    boolean compactDdMmYyyy(int from) {
+        return day(from) && month(from + 2) && year(from + 4);
+    }
+
+    /**
+     * Checks that date[from, to) matches a sequence of optional elements. Each element is a pair of
+     * the accepted characters and a quantifier, "?" or "*".
+     * <p>
+     * As every element may be skipped, the elements still reachable are always a suffix of the
+     * list. Taking the first element that accepts the character leaves the largest suffix, so a
+     * single greedy pass decides the match.
+     */
+    boolean optionals(int from, int to, String[][] elements) {
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            char c = date.charAt(i);
+            while (state < elements.length && elements[state][0].indexOf(c) < 0)
+                state++;
+            if (state == elements.length)
+                return false;
+            if (!"*".equals(elements[state][1]))
+                state++;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that date[from, to) is a concatenation of zero or more keywords of the category.
+     * <p>
+     * The before, after and around rules ask about the same range one after the other, so the
+     * categories of the last range are kept and a range is only matched against the keywords once.
+     */
+    boolean words(int from, int to, int category) {
+        if (from != lastFrom || to != lastTo) {
+            lastCategories = keywords.categories(date, from, to);
+            lastFrom = from;
+            lastTo = to;
+        }
+        return (lastCategories & category) != 0;
+    }
+
+    /**
+     * Checks that date[from, to) consists of keywords followed by whitespace, or, if trailingDots
+     * is set, by whitespace and then dots. The keywords contain no whitespace, so the split is unique.
+     */
+    boolean wordsThenWhitespace(int from, int to, int category, boolean trailingDots) {
+        int end = to;
+        if (trailingDots) {
+            while (end > from && date.charAt(end - 1) == '.')
+                end--;
+        }
+        while (end > from && isWhitespace(date.charAt(end - 1)))
+            end--;
+        return words(from, end, category);
+    }
+}
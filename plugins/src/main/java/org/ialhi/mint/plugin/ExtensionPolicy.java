@@ -0,0 +1,217 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The file extensions {@link LinkFormatChecker} rejects in links without a protocol, compiled
+ * into a perfect hash table.
+ * <p>
+ * The list is read from forbiddenextensions.txt on the classpath, or from the file named by the
+ * system property xsltplugin.checklink.extensions_file; if that file cannot be read, the list on
+ * the classpath is used. Extensions are separated by white space, a # starts a comment; a leading
+ * dot is allowed. They match in any case.
+ * <p>
+ * The extensions are spread over buckets by one hash; each bucket has a seed that sends its
+ * extensions to free slots of the table, found when the list is compiled. A lookup hashes the
+ * characters once, folding their case, and compares one slot, without copying the characters.
+ */
+public class ExtensionPolicy {
+    private static final Logger LOG = Logger.getLogger(ExtensionPolicy.class);
+    private static final String RESOURCE = "/forbiddenextensions.txt";
+    private static final int MAX_SEED = 1 << 16;
+
+    private final char[][] slots;
+    private final int[] seeds;
+    private final int size;
+
+    private static class DefaultHolder {
+        static final ExtensionPolicy DEFAULT = load();
+    }
+
+    private ExtensionPolicy(char[][] slots, int[] seeds, int size) {
+        this.slots = slots;
+        this.seeds = seeds;
+        this.size = size;
+    }
+
+    public static ExtensionPolicy getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    public static ExtensionPolicy parse(String list) {
+        List<String> extensions = new ArrayList<>();
+        for (String line : list.split("\r?\n")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+                line = line.substring(0, comment);
+            for (String extension : line.trim().split("\\s+")) {
+                if (extension.startsWith("."))
+                    extension = extension.substring(1);
+                if (extension.isEmpty())
+                    continue;
+                if (extension.indexOf('.') >= 0 || extension.indexOf('/') >= 0)
+                    throw new IllegalArgumentException("Not a file extension: " + extension);
+                extensions.add(extension);
+            }
+        }
+        return compile(extensions);
+    }
+
+    public static ExtensionPolicy compile(List<String> extensions) {
+        Map<String, char[]> folded = new LinkedHashMap<>();
+        for (String extension : extensions) {
+            char[] key = new char[extension.length()];
+            for (int i = 0; i < key.length; i++)
+                key[i] = fold(extension.charAt(i));
+            folded.put(new String(key), key);
+        }
+        List<char[]> keys = new ArrayList<>(folded.values());
+        //At most half full, so each bucket finds a seed after a few tries
+        for (int slotCount = Integer.highestOneBit(Math.max(1, keys.size())) * 4; ; slotCount *= 2) {
+            ExtensionPolicy policy = place(keys, slotCount);
+            if (policy != null)
+                return policy;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isForbidden(CharSequence extension) {
+        return isForbidden(extension, 0, extension.length());
+    }
+
+    /**
+     * @return whether value[from, to) is one of the extensions, in any case
+     */
+    public boolean isForbidden(CharSequence value, int from, int to) {
+        if (size == 0)
+            return false;
+        long hash = hash(value, from, to);
+        char[] key = slots[slot(hash, seeds[bucket(hash, seeds.length)], slots.length)];
+        if (key == null || key.length != to - from)
+            return false;
+        for (int i = 0; i < key.length; i++) {
+            if (fold(value.charAt(from + i)) != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    /* Places the largest buckets first, or returns null if a bucket finds no seed */
+    private static ExtensionPolicy place(List<char[]> keys, int slotCount) {
+        int bucketCount = Math.max(1, slotCount / 8);
+        List<List<char[]>> buckets = new ArrayList<>();
+        for (int i = 0; i < bucketCount; i++)
+            buckets.add(new ArrayList<>());
+        for (char[] key : keys)
+            buckets.get(bucket(hash(key), bucketCount)).add(key);
+        Integer[] order = new Integer[bucketCount];
+        for (int i = 0; i < bucketCount; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+        char[][] slots = new char[slotCount][];
+        int[] seeds = new int[bucketCount];
+        int[] taken = new int[slotCount];
+        int attempt = 0;
+        for (int b : order) {
+            List<char[]> bucket = buckets.get(b);
+            if (bucket.isEmpty())
+                break;
+            int seed = 0;
+            while (!fits(bucket, seed, slots, taken, ++attempt)) {
+                if (++seed == MAX_SEED)
+                    return null;
+            }
+            seeds[b] = seed;
+            for (char[] key : bucket)
+                slots[slot(hash(key), seed, slotCount)] = key;
+        }
+        return new ExtensionPolicy(slots, seeds, keys.size());
+    }
+
+    /* Whether all keys of the bucket go to distinct free slots with this seed */
+    private static boolean fits(List<char[]> bucket, int seed, char[][] slots, int[] taken, int attempt) {
+        //taken marks the slots of each try with its own number, so it never has to be cleared
+        for (char[] key : bucket) {
+            int slot = slot(hash(key), seed, slots.length);
+            if (slots[slot] != null || taken[slot] == attempt)
+                return false;
+            taken[slot] = attempt;
+        }
+        return true;
+    }
+
+    private static int bucket(long hash, int bucketCount) {
+        return (int) (hash >>> 32) & (bucketCount - 1);
+    }
+
+    private static int slot(long hash, int seed, int slotCount) {
+        long h = hash + seed * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return (int) (h ^ (h >>> 33)) & (slotCount - 1);
+    }
+
+    /* FNV-1a over the folded characters */
+    private static long hash(CharSequence value, int from, int to) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = from; i < to; i++)
+            hash = (hash ^ fold(value.charAt(i))) * 0x100000001B3L;
+        return hash;
+    }
+
+    private static long hash(char[] key) {
+        long hash = 0xCBF29CE484222325L;
+        for (char c : key)
+            hash = (hash ^ c) * 0x100000001B3L;
+        return hash;
+    }
+
+    private static char fold(char c) {
+        if (c < 128)
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static ExtensionPolicy load() {
+        return load(System.getProperty("xsltplugin.checklink.extensions_file"));
+    }
+
+    /**
+     * @param file the configured list, or null for the bundled one, which is also used when the
+     *             configured list cannot be read: an empty policy would accept every extension
+     */
+    static ExtensionPolicy load(String file) {
+        if (file != null) {
+            try (InputStream in = new FileInputStream(file)) {
+                ExtensionPolicy policy = parse(IOUtils.toString(in, StandardCharsets.UTF_8.name()));
+                LOG.debug("Forbidden link extensions: " + policy.size() + " from " + file);
+                return policy;
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.error("Could not read the forbidden extensions from " + file + ", using " + RESOURCE + " instead: " + e.getMessage());
+            }
+        }
+        try (InputStream in = ExtensionPolicy.class.getResourceAsStream(RESOURCE)) {
+            if (in == null)
+                throw new IOException(RESOURCE + " is not on the classpath");
+            ExtensionPolicy policy = parse(IOUtils.toString(in, StandardCharsets.UTF_8.name()));
+            LOG.debug("Forbidden link extensions: " + policy.size());
+            return policy;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the forbidden extensions from " + RESOURCE + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the length of the input an extension function looks at, so a multi-kilobyte value in a
+ * single record cannot stall a transformation.
+ * <p>
+ * Each function has its own guard, configured with the system property
+ * xsltplugin.&lt;function&gt;.max_length, the longest input that is looked at. The limit is off
+ * (0) unless it is set, so values of any length are handled as before. With a limit, a longer
+ * input is treated as not matching; it is counted and logged.
+ */
+public class GuardedMatcher {
+    private static final Logger LOG = Logger.getLogger(GuardedMatcher.class);
+    private static final ConcurrentHashMap<String, GuardedMatcher> GUARDS = new ConcurrentHashMap<>();
+    private static final int LOGGED_TRIPS = 10;
+    private static final int LOGGED_LENGTH = 64;
+
+    private final String function;
+    private final int maxLength;
+    private final LongAdder trips = new LongAdder();
+
+    public GuardedMatcher(String function, int maxLength) {
+        this.function = function;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return the guard of the function, configured from the system properties on first use
+     */
+    public static GuardedMatcher forFunction(String function) {
+        return GUARDS.computeIfAbsent(function, name -> new GuardedMatcher(name,
+                Integer.getInteger("xsltplugin." + name + ".max_length", 0)));
+    }
+
+    public static Collection<GuardedMatcher> getGuards() {
+        return Collections.unmodifiableCollection(GUARDS.values());
+    }
+
+    /**
+     * @return false, counting a trip, if the input is longer than max_length
+     */
+    public boolean acceptsLength(CharSequence input) {
+        if (maxLength <= 0 || input.length() <= maxLength)
+            return true;
+        trip(input, "it is longer than " + maxLength + " characters");
+        return false;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public long getTrips() {
+        return trips.sum();
+    }
+
+    @Override
+    public String toString() {
+        return function + ": " + getTrips() + " inputs over the limit";
+    }
+
+    private void trip(CharSequence input, String reason) {
+        trips.increment();
+        long count = trips.sum();
+        if (count <= LOGGED_TRIPS || count % 1000 == 0) {
+            String start = input.length() > LOGGED_LENGTH ? input.subSequence(0, LOGGED_LENGTH) + "..." : input.toString();
+            LOG.warn(function + " skipped a value (" + count + " so far) because " + reason + ": " + start);
+        }
+    }
+}
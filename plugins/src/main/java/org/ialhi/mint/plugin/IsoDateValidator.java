@@ -0,0 +1,89 @@
+package org.ialhi.mint.plugin;
+
+/**
+ * Recognises dates that are already in the form normalizeDate produces: -?yyyy, -?yyyymmdd,
+ * -?yyyy-mm or -?yyyy-mm-dd, optionally followed by / and a second date of the same forms, where
+ * yyyy starts with 0, 1 or 2.
+ * <p>
+ * The checks work on the characters directly and allocate nothing.
+ */
+public class IsoDateValidator {
+
+    private IsoDateValidator() {
+    }
+
+    /**
+     * @return true if the date is valid ISO, except for yyyymmdd and yyyymmdd/yyyymmdd which still
+     * need to be normalized
+     */
+    public static boolean isNormal(CharSequence date) {
+        return isValid(date) && !isCompact(date);
+    }
+
+    public static boolean isValid(CharSequence date) {
+        int end = parseDate(date, 0);
+        if (end == date.length())
+            return true;
+        return end > 0 && date.charAt(end) == '/' && parseDate(date, end + 1) == date.length();
+    }
+
+    /* ([0-9]{8}) or ([0-9]{8})/([0-9]{8}) */
+    private static boolean isCompact(CharSequence date) {
+        int length = date.length();
+        if (length != 8 && length != 17)
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c = date.charAt(i);
+            if (i == 8 ? c != '/' : !isDigit(c))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the index after the date starting at from, or -1 if there is none
+     */
+    private static int parseDate(CharSequence date, int from) {
+        int i = from;
+        if (i < date.length() && date.charAt(i) == '-')
+            i++;
+        if (!isYear(date, i))
+            return -1;
+        i += 4;
+        if (isMonth(date, i) && isDay(date, i + 2))
+            return i + 4;
+        if (i < date.length() && date.charAt(i) == '-' && isMonth(date, i + 1)) {
+            i += 3;
+            if (i < date.length() && date.charAt(i) == '-' && isDay(date, i + 1))
+                i += 3;
+        }
+        return i;
+    }
+
+    /* (0|1|2)([0-9]{3}) */
+    private static boolean isYear(CharSequence date, int i) {
+        return i + 4 <= date.length() && date.charAt(i) >= '0' && date.charAt(i) <= '2'
+                && isDigit(date.charAt(i + 1)) && isDigit(date.charAt(i + 2)) && isDigit(date.charAt(i + 3));
+    }
+
+    /* 01|02|...|12 */
+    private static boolean isMonth(CharSequence date, int i) {
+        if (i + 2 > date.length())
+            return false;
+        char first = date.charAt(i), second = date.charAt(i + 1);
+        return (first == '0' && second >= '1' && second <= '9') || (first == '1' && second >= '0' && second <= '2');
+    }
+
+    /* (0[1-9])|((1|2)[0-9])|(3[0-1]) */
+    private static boolean isDay(CharSequence date, int i) {
+        if (i + 2 > date.length())
+            return false;
+        char first = date.charAt(i), second = date.charAt(i + 1);
+        return (first == '0' && second >= '1' && second <= '9') || ((first == '1' || first == '2') && isDigit(second))
+                || (first == '3' && (second == '0' || second == '1'));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -4,12 +4,6 @@
  */
 package org.ialhi.mint.plugin;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.Arrays;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import net.sf.saxon.expr.XPathContext;
 import net.sf.saxon.lib.ExtensionFunctionCall;
 import net.sf.saxon.lib.ExtensionFunctionDefinition;
@@ -27,32 +21,32 @@ import org.apache.log4j.Logger;
 public class LinkFormatChecker extends ExtensionFunctionDefinition {
     private static final Logger LOG = Logger.getLogger(LinkFormatChecker.class);
     private static final StructuredQName FUNCTION_NAME = new StructuredQName("ape", "http://www.archivesportaleurope.net/functions", "checkLink");
+    private static final GuardedMatcher GUARD = GuardedMatcher.forFunction("checklink");
+    private static final int CACHE_SIZE = Integer.getInteger("xsltplugin.checklink.cache_size", 10000);
 
-    //First row: prefix; second row: alphanumeric URL; third row: IP4 URL; fourth row: optional port and anything after the /
-    private static final Pattern URL_PATTERN = Pattern.compile("^(http|https|ftp)\\://"
-            + "(([a-zA-Z0-9\\-\\.]+\\.[a-zA-Z]{2,3})?|"
-            + "(^([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.\n([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])$)?)"
-            + "(:[a-zA-Z0-9]*)?/?([a-zA-Z0-9\\-\\._\\?\\,\\'/\\\\\\+&amp;%\\$\\:#\\=~\\[\\]\\(\\)@;!])*$");
-
-    private static final String[] FORBIDDEN_EXTENSIONS = {"bmp", "gif", "jpg", "png", "psd", "pspimage",
-            "tif", "tiff", "dds", "indd", "pct", "pict", "tga", "yuv", "ai", "eps", "ps", "svg", "3dm",
-            "3ds", "max", "obj", "doc", "docx", "log", "msg", "odt", "pages", "pdf", "rtf", "txt", "wpd",
-            "wps", "tex", "csv", "dat", "ged", "key", "pps", "ppt", "pptx", "vcf", "xlr", "xls", "xlsx",
-            "xml", "3g2", "3gp", "aif", "avi", "flv", "iff", "m3u", "m4a", "mid", "mov", "mp3", "mp4", "mpa",
-            "mpg", "ra", "rm", "swf", "wav", "wma", "wmv", "asf", "asx", "m4v", "srt", "7z", "cbr", "deb",
-            "gz", "pkg", "rar", "rpm", "tar", "zip", "zipx", "accdb", "db", "dbf", "mdb", "pdb", "sdf", "sql",
-            "asp", "aspx", "css", "htm", "html", "js", "jsp", "php", "rss", "xhtm", "xhtml", "apk", "app",
-            "bat", "exe", "jar", "bak", "tmp", "dot", "dotm", "dotx", "pot", "potm", "potx", "ots", "ott", "stc",
-            "stw", "xlt", "c", "class", "cpp", "cs", "dtd", "fla", "h", "java", "m", "p", "py", "rng", "sh",
-            "xsd", "xsl", "cur", "dll", "drv", "icns", "ico", "sys", ".cfg", "ini", "prf", "cgi", "gpx", "kml",
-            "kmz", "crx", "plugin", "fnt", "fon", "otf", "ttf"};
-    private static List<String> FORBIDDEN_EXTENSIONS_LIST;
-
-    static {
-        FORBIDDEN_EXTENSIONS_LIST = Arrays.asList(FORBIDDEN_EXTENSIONS);
-    }
+    /**
+     * cache
+     * <p>
+     * Remembers the normalized value (or null) of the links seen by all calls of this function, as
+     * the same repository and finding aid links come back on every record of a collection. The
+     * size is set with the system property xsltplugin.checklink.cache_size, 0 disables it.
+     */
+    private final BoundedCache<String, String> cache = new BoundedCache<>(CACHE_SIZE);
+
+    /**
+     * reachability
+     * <p>
+     * Rejects the links that cannot be reached as well, if xsltplugin.checklink.reachability is
+     * set, see {@link LinkReachability}. Null otherwise.
+     */
+    private final LinkReachability reachability;
 
     public LinkFormatChecker() {
+        this(LinkReachability.isEnabled() ? LinkReachability.getDefault() : null);
+    }
+
+    public LinkFormatChecker(LinkReachability reachability) {
+        this.reachability = reachability;
     }
 
     @Override
@@ -80,38 +74,73 @@ public class LinkFormatChecker extends ExtensionFunctionDefinition {
         public Sequence call(XPathContext xPathContext, Sequence[] arguments) throws XPathException {
             if(arguments[0] == null)
                 return StringValue.EMPTY_STRING;
-            String out = normalizeLink(((StringValue)arguments[0]).getStringValue());
+            String out = normalize(((StringValue)arguments[0]).getStringValue());
             return StringValue.makeStringValue(out);
         }
     }
 
+    /**
+     * Normalizes the link through the cache shared by all calls of this function and, if enabled,
+     * rejects it when it is known to be unreachable. Waits for the reachability check no longer
+     * than its budget.
+     */
+    public String normalize(String link) {
+        String normalized = checkFormat(link);
+        if (normalized == null || reachability == null)
+            return normalized;
+        return reachability.check(normalized, reachability.deadline()) == LinkReachability.Status.UNREACHABLE ? null : normalized;
+    }
+
+    /**
+     * Normalizes the link through the cache, without checking its reachability. Links longer
+     * than the guard allows are rejected before the cache, so they are never kept.
+     */
+    public String checkFormat(String link) {
+        if (!GUARD.acceptsLength(link))
+            return null;
+        if (cache.getMaximumSize() == 0)
+            return normalizeLink(link);
+        return cache.get(link, this::normalizeLink);
+    }
+
+    public BoundedCache<String, String> getCache() {
+        return cache;
+    }
+
+    public LinkReachability getReachability() {
+        return reachability;
+    }
+
+    /**
+     * @return the link as java.net.URL writes it, with http:// added if it has no protocol, or
+     * null if it is not a web link or names a file with a forbidden extension. The link is
+     * scanned once by {@link LinkScanner}, which returns what URL would without building one.
+     */
     public String normalizeLink(String link) {
-        try {
-            URL currentUrl = new URL(link);
-            link = currentUrl.toString();
-        } catch (MalformedURLException ex) {
-            String part = link;
-            if(!part.contains("://")) {
-                if(part.contains("/"))
-                    part = part.substring(0, part.indexOf("/"));
-                if(part.contains("."))
-                    part = part.substring(part.lastIndexOf(".") + 1, part.length());
-                if(FORBIDDEN_EXTENSIONS_LIST.contains(part))
+        if (!GUARD.acceptsLength(link))
+            return null;
+        LinkScanner url = LinkScanner.scan(link);
+        switch (url.getStatus()) {
+            case WEB:
+                link = url.getExternalForm();
+                break;
+            case OTHER_PROTOCOL:
+                return null;
+            default:
+                if (link.indexOf("://") < 0 && hasForbiddenExtension(link))
                     return null;
-            }
-
-            if (ex.getMessage().startsWith("no protocol") || ex.getMessage().startsWith("unknown protocol")) {
-                link = "http://" + link;
-            }
-        }
-        Matcher matcher = URL_PATTERN.matcher(link);
-        try {
-            if (matcher.matches()) {
-                return link;
-            }
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
+                if (url.getStatus() == LinkScanner.Status.NO_PROTOCOL)
+                    link = "http://" + link;
         }
-        return null;
+        return LinkScanner.isWebLink(link) ? link : null;
+    }
+
+    /* The extension of the part before the first slash, see ExtensionPolicy */
+    private static boolean hasForbiddenExtension(String link) {
+        int end = link.indexOf('/');
+        if (end < 0)
+            end = link.length();
+        int dot = link.lastIndexOf('.', end - 1);
+        return ExtensionPolicy.getDefault().isForbidden(link, dot + 1, end);
     }
 }
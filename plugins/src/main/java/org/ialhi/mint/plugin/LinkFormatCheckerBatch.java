@@ -0,0 +1,114 @@
+package org.ialhi.mint.plugin;
+
+import net.sf.saxon.expr.XPathContext;
+import net.sf.saxon.lib.ExtensionFunctionCall;
+import net.sf.saxon.lib.ExtensionFunctionDefinition;
+import net.sf.saxon.om.Item;
+import net.sf.saxon.om.Sequence;
+import net.sf.saxon.om.SequenceIterator;
+import net.sf.saxon.om.StructuredQName;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.value.SequenceExtent;
+import net.sf.saxon.value.SequenceType;
+import net.sf.saxon.value.StringValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ape:checkLinks(xs:string*) checks a whole sequence of links in one call, for instance every dao
+ * of a record. The result has one item per input, in the same order; rejected links give an empty
+ * string, as they do with ape:checkLink.
+ * <p>
+ * Each distinct link is checked once. The cache is that of the LinkFormatChecker passed in, so
+ * register both functions with the same instance. If reachability is checked, the checks of all
+ * links start together and the call waits for them one budget at most, not one per link.
+ */
+public class LinkFormatCheckerBatch extends ExtensionFunctionDefinition {
+
+    private static final StructuredQName FUNCTION_NAME = new StructuredQName("ape", "http://www.archivesportaleurope.net/functions", "checkLinks");
+
+    private final LinkFormatChecker linkFormatChecker;
+
+    public LinkFormatCheckerBatch() {
+        this(new LinkFormatChecker());
+    }
+
+    public LinkFormatCheckerBatch(LinkFormatChecker linkFormatChecker) {
+        super();
+        this.linkFormatChecker = linkFormatChecker;
+    }
+
+    @Override
+    public StructuredQName getFunctionQName() {
+        return FUNCTION_NAME;
+    }
+
+    @Override
+    public int getMinimumNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public int getMaximumNumberOfArguments() {
+        return 1;
+    }
+
+    @Override
+    public SequenceType[] getArgumentTypes() {
+        return new SequenceType[]{SequenceType.STRING_SEQUENCE};
+    }
+
+    @Override
+    public SequenceType getResultType(SequenceType[] sequenceTypes) {
+        return SequenceType.STRING_SEQUENCE;
+    }
+
+    @Override
+    public ExtensionFunctionCall makeCallExpression() {
+        return new LinkFormatCheckerBatchCall();
+    }
+
+    public class LinkFormatCheckerBatchCall extends ExtensionFunctionCall {
+
+        public Sequence call(XPathContext xPathContext, Sequence[] arguments) throws XPathException {
+            List<String> links = new ArrayList<>();
+            SequenceIterator iterator = arguments[0].iterate();
+            for (Item item = iterator.next(); item != null; item = iterator.next())
+                links.add(item.getStringValue());
+            List<StringValue> out = new ArrayList<>(links.size());
+            for (String normalized : normalizeLinks(links))
+                out.add(StringValue.makeStringValue(normalized));
+            return new SequenceExtent(out);
+        }
+    }
+
+    /**
+     * @return the normalized links, aligned with the input and null where the link was rejected
+     */
+    public List<String> normalizeLinks(List<String> links) {
+        Map<String, String> distinct = new HashMap<>();
+        for (String link : links) {
+            if (!distinct.containsKey(link))
+                distinct.put(link, linkFormatChecker.checkFormat(link));
+        }
+        LinkReachability reachability = linkFormatChecker.getReachability();
+        if (reachability != null) {
+            for (String normalized : distinct.values()) {
+                if (normalized != null)
+                    reachability.prefetch(normalized);
+            }
+            long deadline = reachability.deadline();
+            for (Map.Entry<String, String> entry : distinct.entrySet()) {
+                if (entry.getValue() != null && reachability.check(entry.getValue(), deadline) == LinkReachability.Status.UNREACHABLE)
+                    entry.setValue(null);
+            }
+        }
+        List<String> out = new ArrayList<>(links.size());
+        for (String link : links)
+            out.add(distinct.get(link));
+        return out;
+    }
+}
@@ -0,0 +1,423 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional check that the links accepted by {@link LinkFormatChecker} can be reached, with a HEAD
+ * request. It is enabled with the system property xsltplugin.checklink.reachability=true.
+ * <p>
+ * The requests run on a pool of xsltplugin.checklink.reachability_threads threads (16), at most
+ * xsltplugin.checklink.reachability_per_host (2) at a time to the same host, with a connect and
+ * read timeout of xsltplugin.checklink.reachability_timeout milliseconds (5000). The checks of a
+ * host that is busy wait in a queue of that host rather than on a thread, so links to other hosts
+ * go ahead. No more than 10000 checks wait in all; a link that finds no room is checked on a later
+ * call.
+ * <p>
+ * A call waits for its check at most xsltplugin.checklink.reachability_budget milliseconds (100).
+ * A check that is still running then gives UNKNOWN and the link is kept; its result is there for
+ * the next call with the same link. Only an error response (4xx except 405 and 429) or a host that
+ * cannot be found, connected to or routed to makes a link UNREACHABLE. Timeouts, server errors and
+ * any other failure, such as a reset connection or a failed TLS handshake, are UNKNOWN and are
+ * tried again.
+ * <p>
+ * Known results are appended to the file xsltplugin.checklink.reachability_file
+ * (linkreachability.log in the temporary directory) and read back when the checker starts, so a
+ * run never checks a link again until its result is older than
+ * xsltplugin.checklink.reachability_ttl hours (168), or
+ * xsltplugin.checklink.reachability_unreachable_ttl hours (24) for an UNREACHABLE one. Each line
+ * is the time of the check, the status and the link, separated by tabs; the latest line of a link
+ * wins. The file is rewritten without the stale lines when they make up more than half of it.
+ * Expired results are dropped from memory too, as is the queue of a host once it is idle.
+ */
+public class LinkReachability implements Closeable {
+    private static final Logger LOG = Logger.getLogger(LinkReachability.class);
+    private static final int QUEUE_SIZE = 10000;
+
+    public enum Status {
+        REACHABLE,
+        UNREACHABLE,
+        /** Not checked yet, still running, or failed in a way that may pass */
+        UNKNOWN
+    }
+
+    private static class DefaultHolder {
+        static final LinkReachability DEFAULT = new LinkReachability(
+                new File(System.getProperty("xsltplugin.checklink.reachability_file", new File(System.getProperty("java.io.tmpdir"), "linkreachability.log").getPath())),
+                TimeUnit.HOURS.toMillis(Integer.getInteger("xsltplugin.checklink.reachability_ttl", 168)),
+                TimeUnit.HOURS.toMillis(Integer.getInteger("xsltplugin.checklink.reachability_unreachable_ttl", 24)),
+                Integer.getInteger("xsltplugin.checklink.reachability_threads", 16),
+                Integer.getInteger("xsltplugin.checklink.reachability_per_host", 2),
+                Integer.getInteger("xsltplugin.checklink.reachability_timeout", 5000),
+                Integer.getInteger("xsltplugin.checklink.reachability_budget", 100));
+    }
+
+    private final File file;
+    private final long ttl;
+    private final long unreachableTtl;
+    private final int perHost;
+    private final int timeout;
+    private final long budget;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Status>> running = new ConcurrentHashMap<>();
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private int stores;
+
+    private static class Result {
+        final long checked;
+        final Status status;
+
+        Result(long checked, Status status) {
+            this.checked = checked;
+            this.status = status;
+        }
+    }
+
+    /**
+     * The checks running against one host and those waiting for one of them to finish. Guarded by
+     * its own lock. Removed from hosts when nothing runs; a check that still finds it then looks
+     * the host up again.
+     */
+    private static class Host {
+        final String key;
+        final Deque<Check> waiting = new ArrayDeque<>();
+        int active;
+        boolean removed;
+
+        Host(String key) {
+            this.key = key;
+        }
+    }
+
+    private class Check implements Runnable {
+        final String link;
+        final URL url;
+        final Host host;
+        final CompletableFuture<Status> future;
+
+        Check(String link, URL url, Host host, CompletableFuture<Status> future) {
+            this.link = link;
+            this.url = url;
+            this.host = host;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Status status = request(link, url);
+                if (status != Status.UNKNOWN)
+                    store(link, new Result(System.currentTimeMillis(), status));
+                //Removed first, so a caller that sees the result and asks again starts a new check
+                running.remove(link, future);
+                future.complete(status);
+            } catch (RuntimeException e) {
+                running.remove(link, future);
+                future.completeExceptionally(e);
+            } finally {
+                next(host);
+            }
+        }
+
+        /* No room: the link is checked on a later call */
+        void reject() {
+            running.remove(link, future);
+            future.complete(Status.UNKNOWN);
+        }
+    }
+
+    public LinkReachability(File file, long ttl, int threads, int perHost, int timeout, long budget) {
+        this(file, ttl, ttl, threads, perHost, timeout, budget);
+    }
+
+    public LinkReachability(File file, long ttl, long unreachableTtl, int threads, int perHost, int timeout, long budget) {
+        this.file = file;
+        this.ttl = ttl;
+        this.unreachableTtl = unreachableTtl;
+        this.perHost = perHost;
+        this.timeout = timeout;
+        this.budget = budget;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+            Thread thread = new Thread(runnable, "checklink-reachability-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean("xsltplugin.checklink.reachability");
+    }
+
+    public static LinkReachability getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * @return the time a call may wait for its checks to finish, in System.nanoTime() units
+     */
+    public long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+    }
+
+    /**
+     * Starts checking the link unless its result is known or a check is already running.
+     */
+    public void prefetch(String link) {
+        if (known(link) == null)
+            start(link);
+    }
+
+    /**
+     * @return the status of the link, waiting for its check until the deadline at most
+     */
+    public Status check(String link, long deadline) {
+        Status status = known(link);
+        if (status != null)
+            return status;
+        CompletableFuture<Status> future = start(link);
+        if (future == null)
+            return Status.UNKNOWN;
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Status.UNKNOWN;
+        } catch (ExecutionException | TimeoutException e) {
+            return Status.UNKNOWN;
+        }
+    }
+
+    /**
+     * @return the number of HEAD requests sent
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the number of hosts with checks running or waiting
+     */
+    int getHostCount() {
+        return hosts.size();
+    }
+
+    private Status known(String link) {
+        Result result = results.get(link);
+        if (result == null)
+            return null;
+        if (!isFresh(result, System.currentTimeMillis())) {
+            results.remove(link, result);
+            return null;
+        }
+        return result.status;
+    }
+
+    private boolean isFresh(Result result, long now) {
+        return now - result.checked < (result.status == Status.UNREACHABLE ? unreachableTtl : ttl);
+    }
+
+    private CompletableFuture<Status> start(String link) {
+        URL url;
+        try {
+            url = new URL(link);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol()))
+            return null;
+        CompletableFuture<Status> future = new CompletableFuture<>();
+        CompletableFuture<Status> existing = running.putIfAbsent(link, future);
+        if (existing != null)
+            return existing;
+        String key = url.getHost().toLowerCase() + ":" + url.getPort();
+        while (true) {
+            Host host = hosts.computeIfAbsent(key, Host::new);
+            Check check = new Check(link, url, host, future);
+            synchronized (host) {
+                if (host.removed)
+                    continue;
+                if (host.active >= perHost) {
+                    if (waiting.incrementAndGet() > QUEUE_SIZE) {
+                        waiting.decrementAndGet();
+                        check.reject();
+                    } else {
+                        host.waiting.add(check);
+                    }
+                    return future;
+                }
+                host.active++;
+            }
+            execute(check);
+            return future;
+        }
+    }
+
+    /* Called when a check of the host finishes: hands its turn to the next check waiting for it */
+    private void next(Host host) {
+        execute(poll(host));
+    }
+
+    private Check poll(Host host) {
+        Check check;
+        synchronized (host) {
+            check = host.waiting.poll();
+            if (check == null) {
+                if (--host.active == 0) {
+                    host.removed = true;
+                    hosts.remove(host.key, host);
+                }
+                return null;
+            }
+        }
+        waiting.decrementAndGet();
+        return check;
+    }
+
+    private void execute(Check check) {
+        while (check != null) {
+            try {
+                executor.execute(check);
+                return;
+            } catch (RejectedExecutionException e) {
+                check.reject();
+                check = poll(check.host);
+            }
+        }
+    }
+
+    private Status request(String link, URL url) {
+        HttpURLConnection connection = null;
+        try {
+            requests.incrementAndGet();
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setInstanceFollowRedirects(true);
+            int code = connection.getResponseCode();
+            LOG.debug("HEAD " + link + ": " + code);
+            if (code < 100 || code == 405 || code == 429 || code >= 500)
+                return Status.UNKNOWN;
+            return code < 400 ? Status.REACHABLE : Status.UNREACHABLE;
+        } catch (UnknownHostException | ConnectException | NoRouteToHostException e) {
+            LOG.debug("HEAD " + link + ": " + e);
+            return Status.UNREACHABLE;
+        } catch (IOException e) {
+            //Timeouts, resets, TLS and protocol errors may pass on the next try
+            LOG.debug("HEAD " + link + ": " + e);
+            return Status.UNKNOWN;
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
+
+    private synchronized void store(String link, Result result) {
+        results.put(link, result);
+        //Results that are never asked for again would stay; sweep them now and then
+        if (++stores % QUEUE_SIZE == 0) {
+            long now = System.currentTimeMillis();
+            results.values().removeIf(known -> !isFresh(known, now));
+        }
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+            out.write(line(link, result));
+        } catch (IOException e) {
+            LOG.error("Could not write " + file.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    /* Links accepted by LinkScanner.isWebLink contain no tabs or line breaks */
+    private static String line(String link, Result result) {
+        return result.checked + "\t" + result.status + "\t" + link + "\n";
+    }
+
+    private synchronized void load() {
+        if (!file.exists())
+            return;
+        long now = System.currentTimeMillis();
+        int lines = 0;
+        Map<String, Result> loaded = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lines++;
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 3)
+                    continue;
+                try {
+                    Result result = new Result(Long.parseLong(fields[0]), Status.valueOf(fields[1]));
+                    if (isFresh(result, now))
+                        loaded.put(fields[2], result);
+                    else
+                        loaded.remove(fields[2]);
+                } catch (IllegalArgumentException e) {
+                    LOG.debug("Skipped a line of " + file.getPath() + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Could not read " + file.getPath() + ": " + e.getMessage());
+            return;
+        }
+        results.putAll(loaded);
+        LOG.debug("Read " + loaded.size() + " link reachability results from " + file.getPath());
+        if (lines > 2 * loaded.size())
+            rewrite(loaded);
+    }
+
+    /* Writes the live results to a temporary file that then replaces the file */
+    private void rewrite(Map<String, Result> live) {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Result> entry : live.entrySet())
+                out.write(line(entry.getKey(), entry.getValue()));
+        } catch (IOException e) {
+            LOG.error("Could not write " + temporary.getPath() + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.error("Could not replace " + file.getPath() + " by " + temporary.getPath() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.ialhi.mint.plugin;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scans a link the way java.net.URL parses it, in one pass and without exceptions, for
+ * {@link LinkFormatChecker}.
+ * <p>
+ * scan tells what new URL(link) would have done: return a URL of one of the web protocols (http,
+ * https, ftp) and its toString, a URL of another protocol the JVM knows, throw "no protocol" or
+ * "unknown protocol", or throw for a malformed host or port. The rules are those of URL and
+ * URLStreamHandler.parseURL: surrounding characters up to the space are ignored, a "url:" prefix
+ * is skipped, the protocol is lowercased and an empty authority loses its "//". Only the host
+ * and port are validated; the protocols with handlers of their own (file, jar, mailto, netdoc)
+ * are never web links, so they are not parsed any further.
+ * <p>
+ * isWebLink replaces the URL_PATTERN regular expression: a web protocol, "://" and then only
+ * the characters the expression allowed.
+ */
+public final class LinkScanner {
+    public enum Status {
+        /** Parsed as a URL of a web protocol, see {@link #getExternalForm()} */
+        WEB,
+        /** A protocol with a handler of its own, never a web link */
+        OTHER_PROTOCOL,
+        /** URL throws "no protocol" or "unknown protocol" */
+        NO_PROTOCOL,
+        /** URL throws for the host or the port */
+        MALFORMED
+    }
+
+    private static final List<String> WEB_PROTOCOLS = Arrays.asList("http", "https", "ftp");
+    private static final List<String> OTHER_PROTOCOLS = Arrays.asList("file", "jar", "mailto", "netdoc");
+    private static final String ALLOWED = "-._?,'/\\+&;%$:#=~[]()@!";
+    private static final boolean[] ALLOWED_CHARS = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++)
+            ALLOWED_CHARS[c] = ALLOWED_CHARS[Character.toUpperCase(c)] = true;
+        for (char c = '0'; c <= '9'; c++)
+            ALLOWED_CHARS[c] = true;
+        for (char c : ALLOWED.toCharArray())
+            ALLOWED_CHARS[c] = true;
+    }
+
+    private static final LinkScanner NO_PROTOCOL = new LinkScanner(Status.NO_PROTOCOL, null);
+    private static final LinkScanner OTHER_PROTOCOL = new LinkScanner(Status.OTHER_PROTOCOL, null);
+    private static final LinkScanner MALFORMED = new LinkScanner(Status.MALFORMED, null);
+
+    private final Status status;
+    private final String externalForm;
+
+    private LinkScanner(Status status, String externalForm) {
+        this.status = status;
+        this.externalForm = externalForm;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return what URL.toString() returns for a WEB link, null otherwise
+     */
+    public String getExternalForm() {
+        return externalForm;
+    }
+
+    public static LinkScanner scan(String link) {
+        int limit = link.length();
+        while (limit > 0 && link.charAt(limit - 1) <= ' ')
+            limit--;
+        int start = 0;
+        while (start < limit && link.charAt(start) <= ' ')
+            start++;
+        if (link.regionMatches(true, start, "url:", 0, 4))
+            start += 4;
+        if (start < link.length() && link.charAt(start) == '#')
+            return NO_PROTOCOL;
+
+        //The protocol ends at the first colon, if that comes before any slash
+        String protocol = null;
+        for (int i = start; i < limit && link.charAt(i) != '/'; i++) {
+            if (link.charAt(i) == ':') {
+                String candidate = link.substring(start, i).toLowerCase();
+                if (isValidProtocol(candidate)) {
+                    protocol = candidate;
+                    start = i + 1;
+                }
+                break;
+            }
+        }
+        if (protocol == null)
+            return NO_PROTOCOL;
+        if (!WEB_PROTOCOLS.contains(protocol))
+            return OTHER_PROTOCOLS.contains(protocol) ? OTHER_PROTOCOL : NO_PROTOCOL;
+
+        //The path ends at the query or the fragment, whichever comes first
+        int fragment = link.indexOf('#', start);
+        int end = fragment >= 0 ? fragment : limit;
+        int query = link.indexOf('?', start);
+        int pathEnd = query >= 0 && query < end ? query : end;
+
+        boolean unc = pathEnd - start >= 4 && link.startsWith("////", start);
+        if (unc || pathEnd - start < 2 || !link.startsWith("//", start))
+            return new LinkScanner(Status.WEB, protocol + ":" + link.substring(start, limit));
+        int authorityStart = start + 2;
+        int authorityEnd = link.indexOf('/', authorityStart);
+        if (authorityEnd < 0 || authorityEnd > pathEnd)
+            authorityEnd = pathEnd;
+        if (!isValidAuthority(link, authorityStart, authorityEnd))
+            return MALFORMED;
+        if (authorityStart == authorityEnd)
+            return new LinkScanner(Status.WEB, protocol + ":" + link.substring(authorityEnd, limit));
+        return new LinkScanner(Status.WEB, protocol + ":" + link.substring(start, limit));
+    }
+
+    /**
+     * @return whether the link is a web protocol, "://" and only allowed characters
+     */
+    public static boolean isWebLink(CharSequence link) {
+        int start;
+        if (startsWith(link, "http://"))
+            start = 7;
+        else if (startsWith(link, "https://"))
+            start = 8;
+        else if (startsWith(link, "ftp://"))
+            start = 6;
+        else
+            return false;
+        for (int i = start; i < link.length(); i++) {
+            char c = link.charAt(i);
+            if (c >= 128 || !ALLOWED_CHARS[c])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(CharSequence link, String prefix) {
+        if (link.length() < prefix.length())
+            return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (link.charAt(i) != prefix.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /* As URL.isValidProtocol */
+    private static boolean isValidProtocol(String protocol) {
+        if (protocol.isEmpty() || !Character.isLetter(protocol.charAt(0)))
+            return false;
+        for (int i = 1; i < protocol.length(); i++) {
+            char c = protocol.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '.' && c != '+' && c != '-')
+                return false;
+        }
+        return true;
+    }
+
+    /* The checks of URLStreamHandler.parseURL: an IPv6 literal in brackets and the port */
+    private static boolean isValidAuthority(String link, int from, int to) {
+        int at = link.indexOf('@', from);
+        if (at >= 0 && at < to) {
+            int second = link.indexOf('@', at + 1);
+            //More than one @: not server based, nothing is checked
+            if (second >= 0 && second < to)
+                return true;
+            from = at + 1;
+        }
+        if (from < to && link.charAt(from) == '[') {
+            int bracket = link.indexOf(']', from);
+            if (bracket < 0 || bracket >= to || bracket - from <= 2 || !isIPv6Literal(link, from + 1, bracket))
+                return false;
+            if (bracket + 1 == to)
+                return true;
+            if (link.charAt(bracket + 1) != ':')
+                return false;
+            return bracket + 2 == to || isValidPort(link, bracket + 2, to);
+        }
+        int colon = link.indexOf(':', from);
+        if (colon < 0 || colon >= to || colon + 1 == to)
+            return true;
+        return isValidPort(link, colon + 1, to);
+    }
+
+    /* Integer.parseInt succeeds and the port is not below -1 */
+    private static boolean isValidPort(String link, int from, int to) {
+        boolean negative = false;
+        char first = link.charAt(from);
+        if (first < '0') {
+            if (first != '-' && first != '+')
+                return false;
+            negative = first == '-';
+            if (++from == to)
+                return false;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(link.charAt(i), 10);
+            if (digit < 0)
+                return false;
+            value = Math.min(value * 10 + digit, 1L << 32);
+        }
+        return negative ? value <= 1 : value <= Integer.MAX_VALUE;
+    }
+
+    /* As IPAddressUtil.textToNumericFormatV6 with ASCII digits, the default of the JDK */
+    private static boolean isIPv6Literal(String link, int from, int to) {
+        if (to - from < 2)
+            return false;
+        int percent = link.indexOf('%', from);
+        if (percent >= to)
+            percent = -1;
+        if (percent == to - 1)
+            return false;
+        int length = percent >= 0 ? percent : to;
+        int i = from;
+        if (link.charAt(i) == ':' && link.charAt(++i) != ':')
+            return false;
+        int token = i;
+        int bytes = 0;
+        int doubleColon = -1;
+        boolean sawDigit = false;
+        int value = 0;
+        while (i < length) {
+            char c = link.charAt(i++);
+            int digit = hexDigit(c);
+            if (digit >= 0) {
+                value = value << 4 | digit;
+                if (value > 0xffff)
+                    return false;
+                sawDigit = true;
+                continue;
+            }
+            if (c == ':') {
+                token = i;
+                if (!sawDigit) {
+                    if (doubleColon >= 0)
+                        return false;
+                    doubleColon = bytes;
+                    continue;
+                } else if (i == length) {
+                    return false;
+                }
+                if (bytes + 2 > 16)
+                    return false;
+                bytes += 2;
+                sawDigit = false;
+                value = 0;
+                continue;
+            }
+            if (c == '.' && bytes + 4 <= 16) {
+                if (!isIPv4Literal(link, token, length))
+                    return false;
+                bytes += 4;
+                sawDigit = false;
+                break;
+            }
+            return false;
+        }
+        if (sawDigit) {
+            if (bytes + 2 > 16)
+                return false;
+            bytes += 2;
+        }
+        if (doubleColon >= 0)
+            return bytes != 16;
+        return bytes == 16;
+    }
+
+    /* As IPAddressUtil.textToNumericFormatV4 with exactly three dots */
+    private static boolean isIPv4Literal(String link, int from, int to) {
+        int length = to - from;
+        if (length == 0 || length > 15)
+            return false;
+        int dots = 0;
+        long value = 0;
+        boolean newOctet = true;
+        for (int i = from; i < to; i++) {
+            char c = link.charAt(i);
+            if (c == '.') {
+                if (newOctet || value > 0xff || dots == 3)
+                    return false;
+                dots++;
+                value = 0;
+                newOctet = true;
+            } else {
+                if (c < '0' || c > '9')
+                    return false;
+                value = value * 10 + (c - '0');
+                newOctet = false;
+            }
+        }
+        return dots == 3 && !newOctet && value <= 0xff;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'a' && c <= 'f')
+            return c - 'a' + 10;
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+}
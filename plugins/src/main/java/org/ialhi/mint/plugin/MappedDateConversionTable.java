@@ -0,0 +1,116 @@
+package org.ialhi.mint.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only view of a date conversion table compiled by {@link DateConversionTableCompiler}.
+ * <p>
+ * The file is memory mapped, so a table of any size costs almost no heap. It is an open addressing
+ * hash table: a header, then slotCount slots holding the offset of an entry (or -1), then the
+ * entries, each a key and a value written as a char count followed by the UTF-16 chars. A lookup
+ * hashes the input with String.hashCode, probes linearly and compares the chars in place; only the
+ * value of a hit is turned into a String.
+ * <p>
+ * All offsets and lengths are checked when the file is opened; a truncated or damaged file gives
+ * an IOException there, so the table is loaded from the XML instead.
+ */
+public class MappedDateConversionTable {
+    static final int MAGIC = 0x44435442;
+    //2: keys are canonical
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int mask;
+    private final int dataStart;
+
+    private MappedDateConversionTable(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("Not a compiled date conversion table, or compiled by another version");
+        this.buffer = buffer;
+        this.size = buffer.getInt(8);
+        int slotCount = buffer.getInt(12);
+        if (slotCount <= 0 || Integer.bitCount(slotCount) != 1 || HEADER_SIZE + 4L * slotCount > buffer.capacity())
+            throw new IOException("Truncated or damaged compiled date conversion table: " + slotCount + " slots");
+        this.mask = slotCount - 1;
+        this.dataStart = HEADER_SIZE + 4 * slotCount;
+        validate(slotCount);
+    }
+
+    /* Checks every entry once, so a truncated or half written file is rejected here, not in a lookup */
+    private void validate(int slotCount) throws IOException {
+        int used = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            int offset = buffer.getInt(HEADER_SIZE + 4 * slot);
+            if (offset < 0)
+                continue;
+            used++;
+            long valueStart = stringEnd(dataStart + (long) offset);
+            if (valueStart < 0 || stringEnd(valueStart) < 0)
+                throw new IOException("Truncated or damaged compiled date conversion table: entry of slot " + slot + " out of bounds");
+        }
+        //A lookup stops at an empty slot, so there must be one
+        if (used != size || used >= slotCount)
+            throw new IOException("Truncated or damaged compiled date conversion table: " + used + " entries in " + slotCount + " slots, " + size + " expected");
+    }
+
+    /* The end of the string starting at start, or -1 if it does not fit in the buffer */
+    private long stringEnd(long start) {
+        if (start + 4 > buffer.capacity())
+            return -1;
+        int length = buffer.getInt((int) start);
+        long end = start + 4 + 2L * length;
+        return length < 0 || end > buffer.capacity() ? -1 : end;
+    }
+
+    public static MappedDateConversionTable open(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            return new MappedDateConversionTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public String lookup(String input) {
+        for (int slot = slot(input.hashCode(), mask); ; slot = (slot + 1) & mask) {
+            int offset = buffer.getInt(HEADER_SIZE + 4 * slot);
+            if (offset < 0)
+                return null;
+            int entry = dataStart + offset;
+            if (keyEquals(entry, input)) {
+                int valueStart = entry + 4 + 2 * buffer.getInt(entry);
+                return readString(valueStart);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    static int slot(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private boolean keyEquals(int entry, String input) {
+        int length = buffer.getInt(entry);
+        if (length != input.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(entry + 4 + 2 * i) != input.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private String readString(int start) {
+        char[] chars = new char[buffer.getInt(start)];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = buffer.getChar(start + 4 + 2 * i);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,247 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts the dates that could not be normalized, so the most frequent ones can be added to the
+ * dateconversion.xml first.
+ * <p>
+ * Memory is bounded whatever the number of distinct dates and of threads: threads count into one
+ * of a fixed number of shards, picked by a hash of the thread id, each a count-min sketch (DEPTH
+ * rows of WIDTH counters) with its own set of heavy hitter candidates. There are as many shards
+ * as cores (at most MAX_SHARDS), so workers rarely share a lock. A shard is created on its first
+ * use; the shards are merged when the statistics are read. Counts are estimates that can be too
+ * high, never too low.
+ * <p>
+ * The number of dates reported is set with the system property
+ * xsltplugin.datenormalization.unmatched_top, 0 disables the statistics.
+ */
+public class UnmatchedDateStatistics {
+    public static final int DEFAULT_TOP = Integer.getInteger("xsltplugin.datenormalization.unmatched_top", 100);
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 12;
+    private static final int WIDTH = 1 << WIDTH_BITS;
+    private static final int[] SEEDS = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+    private static final int MAX_LENGTH = 256;
+    private static final int MAX_SHARDS = 64;
+    private static final int SHARDS = Math.min(MAX_SHARDS, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+    private final int top;
+    private final AtomicReferenceArray<Shard> shards = new AtomicReferenceArray<>(SHARDS);
+
+    public UnmatchedDateStatistics() {
+        this(DEFAULT_TOP);
+    }
+
+    public UnmatchedDateStatistics(int top) {
+        this.top = top;
+    }
+
+    public boolean isEnabled() {
+        return top > 0;
+    }
+
+    public void record(String date) {
+        if (top <= 0 || date == null)
+            return;
+        String value = date.trim();
+        if (value.isEmpty())
+            return;
+        if (value.length() > MAX_LENGTH)
+            value = value.substring(0, MAX_LENGTH);
+        shard().add(value);
+    }
+
+    /**
+     * @return the most frequent unmatched dates with their estimated counts, most frequent first
+     */
+    public List<Map.Entry<String, Long>> getTop() {
+        long[][] sketch = new long[DEPTH][WIDTH];
+        Set<String> candidates = new HashSet<>();
+        for (int i = 0; i < SHARDS; i++) {
+            Shard s = shards.get(i);
+            if (s != null)
+                s.mergeInto(sketch, candidates);
+        }
+
+        PriorityQueue<Map.Entry<String, Long>> heaviest = new PriorityQueue<>(top + 1, Map.Entry.comparingByValue());
+        for (String candidate : candidates) {
+            heaviest.add(new HashMap.SimpleImmutableEntry<>(candidate, estimate(sketch, candidate)));
+            if (heaviest.size() > top)
+                heaviest.poll();
+        }
+        List<Map.Entry<String, Long>> result = new ArrayList<>(heaviest);
+        result.sort(Collections.reverseOrder(Map.Entry.comparingByValue()));
+        return result;
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            Shard s = shards.get(i);
+            if (s != null)
+                total += s.getTotal();
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of shards created, never more than MAX_SHARDS whatever the threads
+     */
+    int getShardCount() {
+        int count = 0;
+        for (int i = 0; i < SHARDS; i++) {
+            if (shards.get(i) != null)
+                count++;
+        }
+        return count;
+    }
+
+    public void clear() {
+        for (int i = 0; i < SHARDS; i++) {
+            Shard s = shards.get(i);
+            if (s != null)
+                s.clear();
+        }
+    }
+
+    /**
+     * Writes the most frequent unmatched dates as date entries of a dateconversion.xml, with an
+     * empty valueconverted to fill in.
+     */
+    public void writeFragment(Writer out) throws IOException {
+        out.write("<!-- " + getTotal() + " dates could not be normalized, the most frequent first -->\n");
+        for (Map.Entry<String, Long> entry : getTop()) {
+            out.write("    <!-- " + entry.getValue() + "x -->\n");
+            out.write("    <date>\n");
+            out.write("        <valueread>" + StringEscapeUtils.escapeXml10(entry.getKey()) + "</valueread>\n");
+            out.write("        <valueconverted></valueconverted>\n");
+            out.write("    </date>\n");
+        }
+        out.flush();
+    }
+
+    public void writeFragment(File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) {
+            writeFragment(out);
+        }
+    }
+
+    private Shard shard() {
+        long id = Thread.currentThread().getId();
+        int index = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (SHARDS - 1);
+        Shard s = shards.get(index);
+        if (s == null) {
+            shards.compareAndSet(index, null, new Shard(top * 4));
+            s = shards.get(index);
+        }
+        return s;
+    }
+
+    private static long estimate(long[][] sketch, String value) {
+        int hash = value.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++)
+            estimate = Math.min(estimate, sketch[row][column(hash, row)]);
+        return estimate;
+    }
+
+    /* Multiplicative hashing with a different odd multiplier per row, keeping the high bits */
+    private static int column(int hash, int row) {
+        int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+        return h >>> (32 - WIDTH_BITS);
+    }
+
+    /**
+     * Counts of the threads hashed to one shard. The lock is only contended by threads sharing the
+     * shard and by a merge.
+     */
+    private static class Shard {
+        private final int capacity;
+        private final int[][] sketch = new int[DEPTH][WIDTH];
+        private final Map<String, Long> candidates = new HashMap<>();
+        private long smallest;
+        private long total;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(String value) {
+            int hash = value.hashCode();
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                int column = column(hash, row);
+                if (sketch[row][column] < Integer.MAX_VALUE)
+                    sketch[row][column]++;
+                estimate = Math.min(estimate, sketch[row][column]);
+            }
+            total++;
+
+            //Counts only grow, so a stale smallest is too low at worst and just costs a scan
+            if (candidates.containsKey(value) || candidates.size() < capacity) {
+                if (candidates.put(value, estimate) == null && candidates.size() == capacity)
+                    smallest = smallestCandidate();
+                return;
+            }
+            if (estimate <= smallest)
+                return;
+            String weakest = null;
+            long weakestCount = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+                if (candidate.getValue() < weakestCount) {
+                    weakest = candidate.getKey();
+                    weakestCount = candidate.getValue();
+                }
+            }
+            candidates.remove(weakest);
+            candidates.put(value, estimate);
+            smallest = smallestCandidate();
+        }
+
+        private long smallestCandidate() {
+            long min = Long.MAX_VALUE;
+            for (long count : candidates.values())
+                min = Math.min(min, count);
+            return min;
+        }
+
+        synchronized long getTotal() {
+            return total;
+        }
+
+        synchronized void mergeInto(long[][] merged, Set<String> mergedCandidates) {
+            for (int row = 0; row < DEPTH; row++) {
+                for (int column = 0; column < WIDTH; column++)
+                    merged[row][column] += sketch[row][column];
+            }
+            mergedCandidates.addAll(candidates.keySet());
+        }
+
+        synchronized void clear() {
+            for (int[] row : sketch)
+                Arrays.fill(row, 0);
+            candidates.clear();
+            smallest = 0;
+            total = 0;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package org.ialhi.mint.plugin;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("deprecation")
+public class CountryCodesTest {
+    private static final String CHARACTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcz09:/-Ö_ .é";
+
+    @Test
+    public void scannerMatchesThePatterns() {
+        DateNormalization dateNormalization = new DateNormalization();
+        Random random = new Random(13);
+        for (int i = 0; i < 300000; i++) {
+            StringBuilder value = new StringBuilder();
+            int length = random.nextInt(18);
+            for (int c = 0; c < length; c++)
+                value.append(CHARACTERS.charAt(random.nextInt(i % 2 == 0 ? 26 : CHARACTERS.length())));
+            if (i % 3 == 0 && length > 2)
+                value.setCharAt(random.nextInt(4) % length, '-');
+            String code = value.toString();
+            String replaced = code.replace("Ö", "O");
+            String expected = DateNormalization.PATTERN_MAINAGENCYCODE.matcher(replaced).matches() ? replaced : null;
+            assertEquals("Input [" + code + "]", expected, dateNormalization.checkForMainagencycode(code));
+            expected = DateNormalization.PATTERN_COUNTRYCODE.matcher(code).matches() ? code : null;
+            assertEquals("Input [" + code + "]", expected, dateNormalization.checkForCountrycode(code));
+        }
+    }
+
+    @Test
+    public void listCanBeReplaced() {
+        CountryCodes codes = CountryCodes.parse("# test\nNL BE\n  XX # not a country\n");
+        assertTrue(codes.isCountryCode("XX"));
+        assertFalse(codes.isCountryCode("FR"));
+        assertTrue(codes.isMainAgencyCode("NL-AmISG"));
+        assertFalse(codes.isMainAgencyCode("FR-AmISG"));
+        assertTrue(codes.isMainAgencyCode("FRA-AmISG"));
+    }
+}
@@ -0,0 +1,190 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateConversionTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compiledTableGivesTheSameEntries() throws IOException {
+        File xml = writeTable(folder.getRoot(), 5000);
+        File binary = DateConversionTableCompiler.getBinaryFile(xml);
+        assertEquals(5000, DateConversionTableCompiler.compile(xml, binary));
+
+        MappedDateConversionTable mapped = MappedDateConversionTable.open(binary);
+        assertEquals(5000, mapped.size());
+        for (int i = 0; i < 4999; i++)
+            assertEquals("1" + String.format("%03d", i % 1000), mapped.lookup("free text " + i));
+        assertEquals("first", mapped.lookup("twice"));
+        assertNull(mapped.lookup("free text 4999"));
+        assertNull(mapped.lookup(""));
+
+        DateConversionTable table = DateConversionTable.forBaseURI(folder.getRoot().getPath());
+        assertEquals(5000, table.size());
+        assertEquals("1999", table.lookup("free text 999"));
+    }
+
+    @Test
+    public void truncatedCompiledTableFallsBackToTheXML() throws IOException {
+        File xml = writeTable(folder.getRoot(), 1000);
+        File binary = DateConversionTableCompiler.getBinaryFile(xml);
+        DateConversionTableCompiler.compile(xml, binary);
+        byte[] compiled = Files.readAllBytes(binary.toPath());
+        //Within the last entry, within the slots and within the header
+        for (int length : new int[]{compiled.length - 3, MappedDateConversionTable.HEADER_SIZE + 40, 12}) {
+            Files.write(binary.toPath(), Arrays.copyOf(compiled, length));
+            try {
+                MappedDateConversionTable.open(binary);
+                fail("A table truncated to " + length + " bytes was opened");
+            } catch (IOException expected) {
+            }
+        }
+        assertTrue(binary.lastModified() >= xml.lastModified());
+        DateConversionTable table = DateConversionTable.forBaseURI(folder.getRoot().getPath());
+        assertEquals("1998", table.lookup("free text 998"));
+        assertEquals(1000, table.size());
+    }
+
+    @Test
+    public void journalEntriesAreVisibleAndCompacted() throws IOException {
+        File xml = writeTable(folder.getRoot(), 10);
+        DateConversionTable table = DateConversionTable.forBaseURI(folder.getRoot().getPath());
+        assertNull(table.lookup("vers 1900"));
+        assertEquals("1008", table.lookup("free text 8"));
+
+        table.addEntry("vers 1900", "1900");
+        table.addEntry("free text 1", "1900");
+        table.addEntry("tab\tand\nline", "1901");
+        assertEquals("1900", table.lookup("vers 1900"));
+        assertEquals("1900", table.lookup("free text 1"));
+        assertEquals("1901", table.lookup("tab\tand\nline"));
+
+        table.compact();
+        assertFalse(new DateConversionJournal(xml).getFile().exists());
+        assertTrue(FileUtils.readFileToString(xml, "UTF-8").contains("<valueread>vers 1900</valueread>"));
+        assertEquals("1900", table.lookup("vers 1900"));
+        assertEquals("1900", table.lookup("free text 1"));
+        assertEquals("1901", table.lookup("tab\tand\nline"));
+        assertEquals("1002", table.lookup("free text 2"));
+    }
+
+    @Test
+    public void entriesAddedWhileCompactingAreKept() throws Exception {
+        File xml = writeTable(folder.getRoot(), 10);
+        DateConversionTable table = DateConversionTable.forBaseURI(folder.getRoot().getPath());
+        int writers = 4;
+        int entries = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < entries; i++)
+                    table.addEntry("added " + writer + " " + i, writer + "/" + i);
+                return null;
+            }));
+        }
+        while (!futures.stream().allMatch(Future::isDone))
+            table.compact();
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+
+        for (int w = 0; w < writers; w++)
+            for (int i = 0; i < entries; i++)
+                assertEquals(w + "/" + i, table.lookup("added " + w + " " + i));
+        table.compact();
+        assertFalse(new DateConversionJournal(xml).getFile().exists());
+        String saved = FileUtils.readFileToString(xml, "UTF-8");
+        for (int w = 0; w < writers; w++)
+            for (int i = 0; i < entries; i++)
+                assertTrue(saved.contains("<valueread>added " + w + " " + i + "</valueread>"));
+    }
+
+    @Test
+    public void baseURIsOfTheSameFileShareOneTable() throws IOException {
+        writeTable(folder.getRoot(), 10);
+        File sub = folder.newFolder("sub");
+        DateConversionTable table = DateConversionTable.forBaseURI(folder.getRoot().getPath());
+        assertSame(table, DateConversionTable.forBaseURI(sub.getPath() + "/.."));
+        assertEquals("1003", table.lookup("free text 3"));
+        assertTrue(table.getEstimatedSize() > 0);
+        assertTrue(DateConversionTableRegistry.getTables().contains(table));
+    }
+
+    @Test
+    public void variantsOfAValueShareOneEntry() throws IOException {
+        File xml = writeTable(folder.getRoot(), 10);
+        FileUtils.writeStringToFile(xml, FileUtils.readFileToString(xml, "UTF-8").replace("</datelist>",
+                entry("  1914 - 1918 ", "1914/1918") + entry("Vers\u00a0\u00a01850", "1850") + "</datelist>"), "UTF-8");
+        DateConversionTable table = DateConversionTable.forBaseURI(folder.getRoot().getPath());
+        assertEquals("1914/1918", table.lookup("1914-1918"));
+        assertEquals("1914/1918", table.lookup("1914 \u2013 1918"));
+        assertEquals("1914/1918", table.lookup("\t1914\u2014\n1918"));
+        assertEquals("1850", table.lookup("vers 1850"));
+        assertEquals("1008", table.lookup("FREE  TEXT 8"));
+        assertNull(table.lookup("1914 1918"));
+
+        String canonical = "free text 8";
+        assertSame(canonical, DateConversionTable.canonicalKey(canonical));
+
+        table.addEntry("1914 \u2013 1918", "1914-07-28/1918-11-11");
+        assertEquals("1914-07-28/1918-11-11", table.lookup("1914-1918"));
+        table.compact();
+        assertEquals("1914-07-28/1918-11-11", table.lookup("1914-1918"));
+    }
+
+    @Test
+    public void canonicalValuesAreNotCopied() {
+        char[] alphabet = {'a', 'B', '1', ' ', '\t', '\u00a0', '-', '\u2013', '.', '\u0130', '\u00df'};
+        Random random = new Random(1914);
+        for (int n = 0; n < 100000; n++) {
+            char[] chars = new char[random.nextInt(6)];
+            for (int i = 0; i < chars.length; i++)
+                chars[i] = alphabet[random.nextInt(alphabet.length)];
+            String value = new String(chars);
+            String key = DateConversionTable.canonicalKey(value);
+            if (key.equals(value))
+                assertSame(value, key);
+            assertSame(key, DateConversionTable.canonicalKey(key));
+        }
+    }
+
+    static File writeTable(File directory, int size) throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<datelist>\n");
+        for (int i = 0; i < size - 1; i++)
+            xml.append(entry("free text " + i, "1" + String.format("%03d", i % 1000)));
+        xml.append(entry("twice", "first")).append(entry("twice", "second"));
+        xml.append("</datelist>\n");
+        File file = new File(directory, "dateconversion.xml");
+        FileUtils.writeStringToFile(file, xml.toString(), "UTF-8");
+        return file;
+    }
+
+    static String entry(String valueRead, String valueConverted) {
+        return "<date><valueread>" + valueRead + "</valueread><valueconverted>" + valueConverted + "</valueconverted></date>\n";
+    }
+}
@@ -0,0 +1,146 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.log4j.Logger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * One DateNormalization shared by many threads, as by transformations running in parallel
+ * against one Saxon Configuration.
+ */
+public class DateNormalizationConcurrencyTest {
+    private static final Logger LOG = Logger.getLogger(DateNormalizationConcurrencyTest.class);
+    private static final String BASE_URI = "src/test/resources";
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int THREADS = Math.max(4, CORES);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sharedInstanceGivesTheSingleThreadedResults() throws Exception {
+        List<String> dates = DateNormalizationTest.corpus(new Random(20120), 50000);
+        DateNormalization reference = new DateNormalization(BASE_URI);
+        List<String> expected = new ArrayList<>(dates.size());
+        for (String date : dates)
+            expected.add(reference.normalizeDate(date, BASE_URI));
+
+        DateNormalization shared = new DateNormalization(BASE_URI);
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t * dates.size() / THREADS;
+            workers.add(() -> {
+                //Every thread goes through all dates, starting at a different one
+                for (int i = 0; i < dates.size(); i++) {
+                    int index = (offset + i) % dates.size();
+                    assertEquals("Input [" + dates.get(index) + "]", expected.get(index), shared.normalize(dates.get(index)));
+                }
+                return null;
+            });
+        }
+        runAll(workers);
+        assertEquals(THREADS * (long) dates.size(), shared.getCache().getHits() + shared.getCache().getMisses());
+    }
+
+    @Test
+    public void reloadedTableIsSeenByAllThreads() throws Exception {
+        DateConversionTableTest.writeTable(folder.getRoot(), 10);
+        String baseURI = folder.getRoot().getPath();
+        DateNormalization shared = new DateNormalization(baseURI);
+        DateConversionTable table = DateConversionTable.forBaseURI(baseURI);
+        AtomicBoolean added = new AtomicBoolean();
+        CountDownLatch readersStarted = new CountDownLatch(THREADS);
+
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(() -> {
+                readersStarted.countDown();
+                long deadline = System.currentTimeMillis() + 10000;
+                for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                    boolean addedBefore = added.get();
+                    String normalized = shared.normalize("vers la fin du siècle");
+                    if (normalized != null) {
+                        assertEquals("1880/1899", normalized);
+                        return null;
+                    }
+                    //A value cached from the old table must not survive the reload
+                    assertFalse("Still the old value after the entry was added", addedBefore);
+                    assertEquals("100" + (i % 9), shared.normalize("free text " + (i % 9)));
+                }
+                throw new AssertionError("The new entry was never seen");
+            });
+        }
+        workers.add(() -> {
+            readersStarted.await();
+            assertNull(shared.normalize("vers la fin du siècle"));
+            table.addEntry("vers la fin du siècle", "1880/1899");
+            added.set(true);
+            return null;
+        });
+        runAll(workers);
+        assertEquals("1880/1899", shared.normalize("vers la fin du siècle"));
+    }
+
+    /**
+     * Logs the throughput of one to CORES threads normalizing without the cache. On a machine with
+     * several cores it must grow with the threads, as they share nothing but immutable snapshots:
+     * by half the added cores at least, and by no more than 1.5 times as the test does not measure
+     * precisely enough for more.
+     */
+    @Test
+    public void throughputScalesWithTheThreads() throws Exception {
+        List<String> dates = DateNormalizationTest.corpus(new Random(20121), 20000);
+        DateNormalization shared = new DateNormalization(BASE_URI);
+        throughput(shared, dates, 1);
+        double single = throughput(shared, dates, 1);
+        double best = single;
+        for (int threads = 2; threads <= CORES; threads *= 2) {
+            double parallel = throughput(shared, dates, threads);
+            LOG.info(String.format("%d threads: %.0f dates/s, %.2f times one thread", threads, parallel, parallel / single));
+            best = Math.max(best, parallel);
+        }
+        LOG.info(String.format("1 thread: %.0f dates/s, %d cores", single, CORES));
+        if (CORES >= 2)
+            assertTrue("No scaling: " + best / single, best / single > Math.min(1.5, 1 + (CORES - 1) / 2.0));
+    }
+
+    private static double throughput(DateNormalization shared, List<String> dates, int threads) throws Exception {
+        List<Callable<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(() -> {
+                for (String date : dates)
+                    shared.normalizeDate(date, BASE_URI);
+                return null;
+            });
+        }
+        long start = System.nanoTime();
+        runAll(workers);
+        return threads * (double) dates.size() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void runAll(List<Callable<Void>> workers) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        try {
+            for (Future<Void> future : executor.invokeAll(workers))
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
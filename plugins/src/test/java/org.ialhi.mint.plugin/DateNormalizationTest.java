@@ -0,0 +1,333 @@
+package org.ialhi.mint.plugin;
+
+import net.sf.saxon.lib.ConversionRules;
+import net.sf.saxon.type.BuiltInAtomicType;
+import net.sf.saxon.value.AtomicValue;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Properties;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DateNormalizationTest {
+    private static final String BASE_URI = "src/test/resources";
+    private static final int CORPUS_SIZE = 200000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[] TEMPLATES = {
+            "%04d", "%04d-%02d", "%04d-%02d-%02d", "%04d-%02d-%02d/%04d-%02d-%02d", "-%04d", "%04d%02d%02d",
+            "%02d.%02d.%04d", "%04d%02d", "%04d.%02d.%02d", "%02d.%02d.%04d/%02d.%02d.%04d",
+            "%02d.%02d.%04d - %02d.%02d.%04d", "%d.%d.%04d - %d.%d.%04d", "%d.%d.%04d/%d.%d.%04d",
+            "%04d.%02d.%02d/%04d.%02d.%02d", "%04d.%02d.%02d ? %04d.%02d.%02d", "%04d%02d%02d/%04d%02d%02d",
+            "%02d%02d%04d", "%02d%02d%04d/%02d%02d%04d", "%04d--%04d", "%04d - %04d, %04d", "(%04d) %04d [%04d]",
+            "[%04d], %04d -- (%04d) ", "%04d%04d%04d", "%02d.%02d.%04d bis %02d.%02d.%04d",
+            "%d.%d.%04d to %d.%d.%04d", "%04d bis %04d", "%04d ? %04d", "%04d-%04d", "%04d/%04d",
+            "avant %04d", "vor%04d", "beforebefore  %04d", "apres %04d", "après %04d", "nach %04d", "after %04d",
+            "environ %04d", "ca. %04d", "ca%04d", "env. %04d", "etwa %04d", "um.%04d", "around %04d",
+            "%02dth century", "%02de siècle", "%02d. Jahrhundert", "%02d Jh.", "%02d.  ..", "%02dde eeuw",
+            "%02dth to %02dth century", "%02de à %02de siècle", "%02d.  %02d. Jhd", "%02d bis a %02d Jh ..",
+            "%04d-%02d-%02d/%04d%02d%02d", "-%04d%02d%02d", "%04d-9999", "%04d/3000", "s.d.", "", " ", "?"
+    };
+    private static final String[] TOKENS = {
+            "1985", "0850", "2012", "9999", "3000", "19", "12", "01", "31", "7", "5", "19850101", ".", "-", "--",
+            "/", "?", " ", "  ", "\t", ",", "(", ")", "[", "]", "avant", "vor", "before", "apres", "après", "nach",
+            "after", "environ", "around", "ca", "ca.", "env", "env.", "etwa", "um", "um.", "ieme", "th", "de", "e",
+            "tes", "siècle", "siecle", "Jhd", "century", "Century", "Jahrhundert", "Jh", "eeuw", "bis", "a", "to",
+            "à", "x", "s.d.", "0", "1", "2", "3"
+    };
+
+    @Test
+    public void tokenizerMatchesRegularExpressionCascade() {
+        LegacyDateNormalizer legacy = new LegacyDateNormalizer();
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        Set<DateRule> matched = EnumSet.noneOf(DateRule.class);
+        for (String date : corpus(new Random(20101), CORPUS_SIZE)) {
+            String expected = legacy.normalizeDate(date);
+            assertEquals("Input [" + date + "]", expected, dateNormalization.normalizeDate(date, BASE_URI));
+            DateTokenizer tokenizer = new DateTokenizer(date.replace("9999", "2099").replace("3000", "2099"));
+            for (DateRule rule : DateRule.fixedOrder(tokenizer.digitCount)) {
+                if (tokenizer.runCount <= DateTokenizer.MAX_RUNS && rule.apply(tokenizer) != null)
+                    matched.add(rule);
+            }
+        }
+        assertEquals("Rules never exercised by the corpus", EnumSet.allOf(DateRule.class), matched);
+    }
+
+    @Test
+    public void reorderedRulesGiveTheSameResults() {
+        List<String> corpus = corpus(new Random(20111), CORPUS_SIZE / 4);
+        Random random = new Random(11);
+        for (int round = 0; round < 6; round++) {
+            long[] weights = new long[DateRule.values().length];
+            for (int i = 0; i < weights.length; i++)
+                weights[i] = round == 0 ? i : random.nextInt(1000);
+            DateRule[][] orders = new DateRule[17][];
+            for (int digits = 0; digits < orders.length; digits++)
+                orders[digits] = DateRule.order(DateRule.fixedOrder(digits), rule -> weights[rule.ordinal()]);
+            for (String date : corpus) {
+                DateTokenizer tokenizer = new DateTokenizer(date);
+                DateRule[] reordered = tokenizer.digitCount < orders.length ? orders[tokenizer.digitCount] : new DateRule[0];
+                assertEquals("Input [" + date + "]", tokenizer.normalize(DateRule.fixedOrder(tokenizer.digitCount)), tokenizer.normalize(reordered));
+            }
+        }
+    }
+
+    @Test
+    public void knownDates() {
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        assertEquals("1985-01-01", dateNormalization.normalizeDate("01.01.1985", BASE_URI));
+        assertEquals("1985/1990", dateNormalization.normalizeDate("1985 - 1987, 1990", BASE_URI));
+        assertEquals("0001/1850", dateNormalization.normalizeDate("avant 1850", BASE_URI));
+        assertEquals("1800/1900", dateNormalization.normalizeDate("19th century", BASE_URI));
+        assertEquals("1985-01-01/2099", dateNormalization.normalizeDate("1985-01-01/9999", BASE_URI));
+        assertEquals(null, dateNormalization.normalizeDate("s.d.", BASE_URI));
+    }
+
+    @Test
+    public void keywordPacks() {
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        assertEquals("0001/1850", dateNormalization.normalizeDate("przed 1850", BASE_URI));
+        assertEquals("1850/2099", dateNormalization.normalizeDate("dopo 1850", BASE_URI));
+        assertEquals("1850", dateNormalization.normalizeDate("kb. 1850", BASE_URI));
+        assertEquals("1800/1900", dateNormalization.normalizeDate("19. század", BASE_URI));
+        assertEquals("1700/1900", dateNormalization.normalizeDate("18. až 19. století", BASE_URI));
+
+        Properties packs = new Properties();
+        packs.setProperty("fr.before", "avant");
+        packs.setProperty("it.before", "prima");
+        packs.setProperty("it.century", "secolo");
+        packs.setProperty("de.ordinal", ".");
+        packs.setProperty("de.century", "Jh.");
+        DateKeywords french = DateKeywords.compile(packs, Arrays.asList("fr"));
+        assertEquals("0001/1850", new DateTokenizer("avant 1850", french).normalize());
+        assertEquals(null, new DateTokenizer("prima 1850", french).normalize());
+        DateKeywords all = DateKeywords.compile(packs, null);
+        assertEquals(DateKeywords.BEFORE, all.categories("primasecolo", 0, 5));
+        assertEquals(DateKeywords.CENTURY, all.categories("primasecolo", 5, 11));
+        assertEquals(0, all.categories("primasecolo", 0, 11));
+        assertEquals("1800/1900", new DateTokenizer("19. Jh.", all).normalize());
+
+        packs.setProperty("de.century", "..");
+        try {
+            DateKeywords.compile(packs, null);
+            fail("A century keyword of dots only was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void unusableKeywordFileFallsBackToTheBundledPacks() throws IOException {
+        DateKeywords missing = DateKeywords.load(new File(folder.getRoot(), "missing.properties").getPath(), null);
+        assertEquals(DateKeywords.getDefault().getPacks(), missing.getPacks());
+        assertEquals("0001/1850", new DateTokenizer("avant 1850", missing).normalize());
+
+        File bad = folder.newFile("bad.properties");
+        FileUtils.writeStringToFile(bad, "fr.later = jadis\n", "UTF-8");
+        DateKeywords fallback = DateKeywords.load(bad.getPath(), null);
+        assertEquals("0001/1850", new DateTokenizer("avant 1850", fallback).normalize());
+        assertEquals(null, new DateTokenizer("jadis 1850", fallback).normalize());
+
+        File good = folder.newFile("good.properties");
+        FileUtils.writeStringToFile(good, "fr.before = jadis\n", "UTF-8");
+        DateKeywords merged = DateKeywords.load(good.getPath(), null);
+        assertEquals("0001/1850", new DateTokenizer("jadis 1850", merged).normalize());
+        assertEquals(null, new DateTokenizer("avant 1850", merged).normalize());
+        assertEquals("0001/1850", new DateTokenizer("prima 1850", merged).normalize());
+    }
+
+    @Test
+    public void isoDatesAreReturnedUnchanged() {
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        for (String date : new String[]{"1985", "1985-01", "1985-01-01/1986-12-31", "-0500/0300-02", "19850101/1986-12"}) {
+            assertSame(date, dateNormalization.normalizeDate(date, BASE_URI));
+            assertSame(date, dateNormalization.checkForNormalAttribute(date));
+        }
+        assertEquals(null, dateNormalization.checkForNormalAttribute("19850101"));
+        assertEquals(null, dateNormalization.checkForNormalAttribute("1985-13"));
+    }
+
+    @Test
+    public void repeatedDatesAreCached() {
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        BoundedCache<String, String> cache = dateNormalization.getCache();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("1914/1918", dateNormalization.normalize("1914-1918"));
+            assertEquals(null, dateNormalization.normalize("s.d."));
+        }
+        assertEquals(2, cache.getMisses());
+        assertEquals(4, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void unmatchedDatesAreCountedMostFrequentFirst() throws Exception {
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        for (int i = 0; i < 5; i++)
+            dateNormalization.normalize("s.d.");
+        for (int i = 0; i < 1000; i++)
+            dateNormalization.normalize("undated " + i);
+        dateNormalization.normalize("1914-1918");
+        for (int i = 0; i < 3; i++)
+            dateNormalization.normalize("z.j. & <o.d.>");
+
+        UnmatchedDateStatistics unmatched = dateNormalization.getUnmatchedDates();
+        assertEquals(1008, unmatched.getTotal());
+        List<Map.Entry<String, Long>> top = unmatched.getTop();
+        assertEquals("s.d.", top.get(0).getKey());
+        assertEquals(5L, (long) top.get(0).getValue());
+        assertEquals("z.j. & <o.d.>", top.get(1).getKey());
+
+        StringWriter fragment = new StringWriter();
+        unmatched.writeFragment(fragment);
+        assertTrue(fragment.toString().contains("<valueread>z.j. &amp; &lt;o.d.&gt;</valueread>"));
+    }
+
+    @Test
+    public void unmatchedDatesOfShortLivedThreadsShareBoundedShards() throws InterruptedException {
+        UnmatchedDateStatistics unmatched = new UnmatchedDateStatistics(10);
+        for (int t = 0; t < 200; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                unmatched.record("s.d.");
+                unmatched.record("undated " + thread);
+            });
+            worker.start();
+            worker.join();
+        }
+        assertEquals(400, unmatched.getTotal());
+        assertEquals("s.d.", unmatched.getTop().get(0).getKey());
+        assertEquals(200L, (long) unmatched.getTop().get(0).getValue());
+        assertTrue(unmatched.getShardCount() <= Math.min(64, 2 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Test
+    public void rangesAreTyped() {
+        DateNormalizationRange range = new DateNormalizationRange(BASE_URI);
+        List<AtomicValue> parts = range.normalizeRange("01.01.1985 - 02.03.1986", ConversionRules.DEFAULT);
+        assertEquals(BuiltInAtomicType.DATE, parts.get(0).getItemType());
+        assertEquals("1985-01-01", parts.get(0).getStringValue());
+        assertEquals("1986-03-02", parts.get(1).getStringValue());
+        assertEquals("day", parts.get(2).getStringValue());
+
+        parts = range.normalizeRange("avant 1850", ConversionRules.DEFAULT);
+        assertEquals(BuiltInAtomicType.G_YEAR, parts.get(0).getItemType());
+        assertEquals("0001", parts.get(0).getStringValue());
+        assertEquals("year", parts.get(2).getStringValue());
+
+        parts = range.normalizeRange("198501", ConversionRules.DEFAULT);
+        assertEquals(BuiltInAtomicType.G_YEAR_MONTH, parts.get(0).getItemType());
+        assertSame(parts.get(0), parts.get(1));
+
+        parts = range.normalizeRange("19850101/9999", ConversionRules.DEFAULT);
+        assertEquals("1985-01-01", parts.get(0).getStringValue());
+        assertEquals("2099", parts.get(1).getStringValue());
+        assertEquals("day/year", parts.get(2).getStringValue());
+
+        assertTrue(range.normalizeRange("s.d.", ConversionRules.DEFAULT).isEmpty());
+        assertTrue(range.normalizeRange("1985-02-31", ConversionRules.DEFAULT).isEmpty());
+    }
+
+    @Test
+    public void batchKeepsOrderAndNormalizesEachValueOnce() {
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        DateNormalizationBatch batch = new DateNormalizationBatch(dateNormalization);
+        List<String> out = batch.normalizeDates(Arrays.asList("s.d.", "1914-1918", "01.01.1985", "1914-1918", "s.d."));
+        assertEquals(Arrays.asList(null, "1914/1918", "1985-01-01", "1914/1918", null), out);
+        assertEquals(3, dateNormalization.getCache().getMisses());
+        assertEquals(2, dateNormalization.getUnmatchedDates().getTotal());
+    }
+
+    @Test
+    public void toolKeepsTheInputOrder() throws Exception {
+        List<String> dates = corpus(new Random(20116), 20000);
+        StringBuilder input = new StringBuilder();
+        for (String date : dates)
+            input.append(date.replace('\n', ' ').replace('\r', ' ')).append('\n');
+        DateNormalizationTool tool = new DateNormalizationTool(new DateNormalization(BASE_URI), 4);
+        StringWriter output = new StringWriter();
+        tool.run(new StringReader(input.toString()), output, new PrintStream(new ByteArrayOutputStream()));
+
+        String[] lines = output.toString().split("\n", -1);
+        assertEquals(dates.size() + 1, lines.length);
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        for (int i = 0; i < dates.size(); i++) {
+            String expected = dateNormalization.normalizeDate(dates.get(i).replace('\n', ' ').replace('\r', ' '), BASE_URI);
+            assertEquals(expected == null ? "NULL" : expected, lines[i]);
+        }
+        assertEquals(dates.size(), tool.getLines());
+    }
+
+    @Test
+    public void prepassFillsTheCache() {
+        String ead = "<ead xmlns=\"urn:isbn:1-931666-22-9\"><archdesc><did><unitdate normal=\"x\">1914-1918</unitdate></did>"
+                + "<dsc><c><did><unitdate>  01.01.1985 </unitdate></did></c><c><did><unitdate>s.d.</unitdate></did></c>"
+                + "<c><did><unitdate>1914-1918</unitdate><unittitle>1850</unittitle></did></c></dsc></archdesc></ead>";
+        DateNormalization dateNormalization = new DateNormalization(BASE_URI);
+        int dates = new DateNormalizationPrepass(dateNormalization).run(new ByteArrayInputStream(ead.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(4, dates);
+        BoundedCache<String, String> cache = dateNormalization.getCache();
+        assertEquals(4, cache.getMisses());
+
+        assertEquals("1985-01-01", dateNormalization.normalize("01.01.1985"));
+        assertEquals(null, dateNormalization.normalize("s.d."));
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, dateNormalization.getUnmatchedDates().getTotal());
+    }
+
+    static List<String> corpus(Random random, int size) {
+        List<String> corpus = new ArrayList<>(size);
+        while (corpus.size() < size) {
+            if (random.nextBoolean()) {
+                String template = TEMPLATES[random.nextInt(TEMPLATES.length)];
+                Object[] values = new Object[9];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = randomNumber(random);
+                corpus.add(String.format(template, values));
+            } else {
+                StringBuilder date = new StringBuilder();
+                int tokens = 1 + random.nextInt(6);
+                for (int i = 0; i < tokens; i++)
+                    date.append(TOKENS[random.nextInt(TOKENS.length)]);
+                corpus.add(date.toString());
+            }
+        }
+        return corpus;
+    }
+
+    private static int randomNumber(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return 1 + random.nextInt(12);
+            case 1:
+                return 1 + random.nextInt(31);
+            case 2:
+                return 10 + random.nextInt(10);
+            default:
+                return random.nextInt(2100);
+        }
+    }
+}
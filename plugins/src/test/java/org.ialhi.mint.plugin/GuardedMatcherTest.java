@@ -0,0 +1,30 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GuardedMatcherTest {
+
+    @Test
+    public void inputsOverTheLengthAreCounted() {
+        GuardedMatcher guard = new GuardedMatcher("test", 10);
+        assertTrue(guard.acceptsLength("1985-01-01"));
+        assertFalse(guard.acceptsLength("1985-01-01/1986"));
+        assertEquals(1, guard.getTrips());
+        assertTrue(new GuardedMatcher("test", 0).acceptsLength(StringUtils.repeat('a', 10000)));
+    }
+
+    @Test
+    public void longValuesAreCheckedByDefault() {
+        GuardedMatcher guard = GuardedMatcher.forFunction("checklink");
+        long trips = guard.getTrips();
+        LinkFormatChecker checker = new LinkFormatChecker();
+        String link = "http://www.example.org/" + StringUtils.repeat("x/", 5000);
+        assertEquals(link, checker.normalizeLink(link));
+        assertEquals(trips, guard.getTrips());
+    }
+}
@@ -0,0 +1,168 @@
+package org.ialhi.mint.plugin;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expression cascade DateNormalization used before DateTokenizer, without the
+ * conversion table lookup. Kept as the reference the tokenizer is tested against.
+ */
+public class LegacyDateNormalizer {
+    //Normal ISO pattern
+    private static final Pattern PATTERN_CORRECT_SIMPLE = Pattern.compile("(\\-?(0|1|2)([0-9]{3})(((01|02|03|04|05|06|07|08|09|10|11|12)((0[1-9])|((1|2)[0-9])|(3[0-1])))|\\-((01|02|03|04|05|06|07|08|09|10|11|12)(\\-((0[1-9])|((1|2)[0-9])|(3[0-1])))?))?)(/\\-?(0|1|2)([0-9]{3})(((01|02|03|04|05|06|07|08|09|10|11|12)((0[1-9])|((1|2)[0-9])|(3[0-1])))|\\-((01|02|03|04|05|06|07|08|09|10|11|12)(\\-((0[1-9])|((1|2)[0-9])|(3[0-1])))?))?)?");
+    //01.01.1985
+    private static final Pattern PATTERN_DD_MM_YYYY = Pattern.compile("([0-9]{2})\\.([0-9]{2})\\.([0-9]{4})");
+    private static final Pattern PATTERN_YYYYMM = Pattern.compile("(0|1|2)([0-9]{3})([0-9]{2})");
+    //1985.01.01
+    private static final Pattern PATTERN_YYYY_MM_DD = Pattern.compile("([0-9]{4})\\.([0-9]{2})\\.([0-9]{2})");
+    //01.01.1985/02.01.1985
+    private static final Pattern PATTERN_DD_MM_YYYY_TIMESPAN = Pattern.compile("([0-9]{2})\\.([0-9]{2})\\.([0-9]{4})\\s?(/|\\?|-)?\\s?([0-9]{2})\\.([0-9]{2})\\.([0-9]{4})");
+    //1.1.1985 - 2.1.1985
+    private static final Pattern PATTERN_D_M_YYYY_TIMESPAN = Pattern.compile("([1-9]{1})\\.([1-9]{1})\\.([0-9]{4})\\s?(/|\\?|-)?\\s?([1-9]{1})\\.([1-9]{1})\\.([0-9]{4})");
+    //1985.01.01/1985.01.02
+    private static final Pattern PATTERN_YYYY_MM_DD_TIMESPAN = Pattern.compile("([0-9]{4})\\.([0-9]{2})\\.([0-9]{2})\\s?(/|\\?|-)?\\s?([0-9]{4})\\.([0-9]{2})\\.([0-9]{2})");
+    //01011985
+    private static final Pattern PATTERN_DDMMYYYY = Pattern.compile("((0[1-9])|((1|2)[0-9])|(3[0-1]))(01|02|03|04|05|06|07|08|09|10|11|12)((0|1|2)([0-9]{3}))");
+    //01011985/02011985
+    private static final Pattern PATTERN_DDMMYYYY_TIMESPAN = Pattern.compile("((0[1-9])|((1|2)[0-9])|(3[0-1]))(01|02|03|04|05|06|07|08|09|10|11|12)((0|1|2)([0-9]{3}))/((0[1-9])|((1|2)[0-9])|(3[0-1]))(01|02|03|04|05|06|07|08|09|10|11|12)((0|1|2)([0-9]{3}))");
+    //19850101
+    private static final Pattern PATTERN_YYYYMMDD = Pattern.compile("((0|1|2)([0-9]{3}))(01|02|03|04|05|06|07|08|09|10|11|12)((0[1-9])|((1|2)[0-9])|(3[0-1]))");
+    //1985.01.01/1985.01.02
+    private static final Pattern PATTERN_YYYYMMDD_TIMESPAN = Pattern.compile("((0|1|2)([0-9]{3}))(01|02|03|04|05|06|07|08|09|10|11|12)((0[1-9])|((1|2)[0-9])|(3[0-1]))/((0|1|2)([0-9]{3}))(01|02|03|04|05|06|07|08|09|10|11|12)((0[1-9])|((1|2)[0-9])|(3[0-1]))");
+    //1985--1986
+    private static final Pattern PATTERN_YYYY_YYYY = Pattern.compile("((0|1|2)([0-9]{3}))--((0|1|2)([0-9]{3}))");
+    //1985 - 1987, 1990
+    private static final Pattern PATTERN_YYYY_YYYY_YYYY = Pattern.compile("\\(?\\[?((0|1|2)([0-9]{3}))\\)?\\]?\\s*-*,?\\s*((0|1|2)([0-9]{3}))\\s*-*,?\\s*\\(?\\[?((0|1|2)([0-9]{3}))\\]?\\)?\\s*");
+    //03.07.1985 bis (to, à, etc.) 06.07.1985
+    private static final Pattern PATTERN_1 = Pattern.compile("([0-9]{2})\\.([0-9]{2})\\.([0-9]{4})\\D+([0-9]{2})\\.([0-9]{2})\\.([0-9]{4})");
+    //3.7.1985 bis (to, à, etc.) 6.7.1985
+    private static final Pattern PATTERN_3 = Pattern.compile("([1-9]{1})\\.([1-9]{1})\\.([0-9]{4})\\D+([1-9]{1})\\.([1-9]{1})\\.([0-9]{4})");
+    //1985 bis (to, à, etc.) 1988
+    private static final Pattern PATTERN_2 = Pattern.compile("([0-9]{4})\\D*(\\s\\?\\s)?([0-9]{4})");
+    //avant 1985
+    private static final Pattern PATTERN_4 = Pattern.compile("(avant|vor|before)*\\s*([0-9]{4})");
+    //apres 1985
+    private static final Pattern PATTERN_5 = Pattern.compile("(apres|après|nach|after)*\\s*([0-9]{4})");
+    //around 1985
+    private static final Pattern PATTERN_6 = Pattern.compile("(environ|around|ca\\.?|env\\.?|etwa\\.?|um\\.?)*\\s*([0-9]{4})");
+    //century
+    private static final Pattern PATTERN_7 = Pattern.compile("(1[0-9]{1})(ieme|\\.|th|de|e|tes)* (siècle|siecle|Jhd|century|Century|Jahrhundert|Jh|eeuw)*\\s*\\.*");
+    //century timespan
+    private static final Pattern PATTERN_8 = Pattern.compile("(1[0-9]{1})(ieme|\\.|th|de|e|tes)* (bis|a|to|bis|à)* (1[0-9]{1})(ieme|\\.|th|de|e|tes)* (siècle|siecle|Jhd|century|Century|Jahrhundert|Jh|eeuw)*\\s*\\.*");
+
+    public String normalizeDate(String date) {
+        if (date.contains("9999"))
+            date = date.replace("9999", "2099");
+        if (date.contains("3000"))
+            date = date.replace("3000", "2099");
+
+        //log.info("Trying to normalize: " + date);
+        try {
+            Matcher matcher_correct_simple = PATTERN_CORRECT_SIMPLE.matcher(date);
+            if (matcher_correct_simple.matches()) {
+                //We need a second check for YYYYMMDD and YYYYMMDD/YYYYMMDD which passes above
+                if (!Pattern.compile("([0-9]{8})").matcher(date).matches() && !Pattern.compile("([0-9]{8})/([0-9]{8})").matcher(date).matches()) {
+                    return date;
+                }
+            }
+
+            Matcher matcher_dd_mm_yyyy = PATTERN_DD_MM_YYYY.matcher(date);
+            if (matcher_dd_mm_yyyy.matches())
+                return matcher_dd_mm_yyyy.group(3) + "-" + matcher_dd_mm_yyyy.group(2) + "-" + matcher_dd_mm_yyyy.group(1);
+
+            Matcher matcher_yyyy_mm = PATTERN_YYYYMM.matcher(date);
+            if (matcher_yyyy_mm.matches())
+                return matcher_yyyy_mm.group(1) + matcher_yyyy_mm.group(2) + "-" + matcher_yyyy_mm.group(3);
+
+            Matcher matcher_yyyy_mm_dd = PATTERN_YYYY_MM_DD.matcher(date);
+            if (matcher_yyyy_mm_dd.matches())
+                return matcher_yyyy_mm_dd.group(1) + "-" + matcher_yyyy_mm_dd.group(2) + "-" + matcher_yyyy_mm_dd.group(3);
+
+            Matcher matcher_dd_mm_yyyy_timespan = PATTERN_DD_MM_YYYY_TIMESPAN.matcher(date);
+            if (matcher_dd_mm_yyyy_timespan.matches())
+                return matcher_dd_mm_yyyy_timespan.group(3) + "-" + matcher_dd_mm_yyyy_timespan.group(2) + "-" + matcher_dd_mm_yyyy_timespan.group(1) + "/" + matcher_dd_mm_yyyy_timespan.group(7) + "-" + matcher_dd_mm_yyyy_timespan.group(6) + "-" + matcher_dd_mm_yyyy_timespan.group(5);
+
+            Matcher matcher_d_m_yyyy_timespan = PATTERN_D_M_YYYY_TIMESPAN.matcher(date);
+            if (matcher_d_m_yyyy_timespan.matches())
+                return matcher_d_m_yyyy_timespan.group(3) + "-" + "0" + matcher_d_m_yyyy_timespan.group(2) + "-" + "0" + matcher_d_m_yyyy_timespan.group(1) + "/" + matcher_d_m_yyyy_timespan.group(7) + "-" + "0" + matcher_d_m_yyyy_timespan.group(6) + "-" + "0" + matcher_d_m_yyyy_timespan.group(5);
+
+            Matcher matcher_yyyy_mm_dd_timespan = PATTERN_YYYY_MM_DD_TIMESPAN.matcher(date);
+            if (matcher_yyyy_mm_dd_timespan.matches())
+                return matcher_yyyy_mm_dd_timespan.group(1) + "-" + matcher_yyyy_mm_dd_timespan.group(2) + "-" + matcher_yyyy_mm_dd_timespan.group(3) + "/" + matcher_yyyy_mm_dd_timespan.group(5) + "-" + matcher_yyyy_mm_dd_timespan.group(6) + "-" + matcher_yyyy_mm_dd_timespan.group(7);
+
+            Matcher matcher_yyyymmdd = PATTERN_YYYYMMDD.matcher(date);
+            if (matcher_yyyymmdd.matches()) {
+                if (Integer.parseInt(matcher_yyyymmdd.group(1)) > 1000) { //If it is smaller than 1000, it probably means it is wrong
+                    return matcher_yyyymmdd.group(1) + "-" + matcher_yyyymmdd.group(4) + "-" + matcher_yyyymmdd.group(5);
+                }
+            }
+
+            Matcher matcher_yyyymmdd_timespan = PATTERN_YYYYMMDD_TIMESPAN.matcher(date);
+            if (matcher_yyyymmdd_timespan.matches()) {
+                if (Integer.parseInt(matcher_yyyymmdd_timespan.group(1)) > 1000) {
+                    return matcher_yyyymmdd_timespan.group(1) + "-" + matcher_yyyymmdd_timespan.group(4) + "-" + matcher_yyyymmdd_timespan.group(5) + "/" + matcher_yyyymmdd_timespan.group(10) + "-" + matcher_yyyymmdd_timespan.group(13) + "-" + matcher_yyyymmdd_timespan.group(14);
+                }
+            }
+
+            Matcher matcher_ddmmyyyy = PATTERN_DDMMYYYY.matcher(date);
+            if (matcher_ddmmyyyy.matches())
+                return matcher_ddmmyyyy.group(7) + "-" + matcher_ddmmyyyy.group(6) + "-" + matcher_ddmmyyyy.group(1);
+
+            Matcher matcher_ddmmyyyy_timespan = PATTERN_DDMMYYYY_TIMESPAN.matcher(date);
+            if (matcher_ddmmyyyy_timespan.matches())
+                return matcher_ddmmyyyy_timespan.group(7) + "-" + matcher_ddmmyyyy_timespan.group(6) + "-" + matcher_ddmmyyyy_timespan.group(1) + "/" + matcher_ddmmyyyy_timespan.group(16) + "-" + matcher_ddmmyyyy_timespan.group(15) + "-" + matcher_ddmmyyyy_timespan.group(10);
+
+            Matcher matcher_yyyy_yyyy = PATTERN_YYYY_YYYY.matcher(date);
+            if (matcher_yyyy_yyyy.matches())
+                return matcher_yyyy_yyyy.group(1) + "/" + matcher_yyyy_yyyy.group(4);
+
+            Matcher matcher_yyyy_yyyy_yyyy = PATTERN_YYYY_YYYY_YYYY.matcher(date);
+            if (matcher_yyyy_yyyy_yyyy.matches())
+                return matcher_yyyy_yyyy_yyyy.group(1) + "/" + matcher_yyyy_yyyy_yyyy.group(7);
+
+            return findNormalizationProcess(date);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String findNormalizationProcess(String date) {
+        try {
+            Matcher matcher_1 = PATTERN_1.matcher(date);
+            if (matcher_1.matches())
+                return matcher_1.group(3) + "-" + matcher_1.group(2) + "-" + matcher_1.group(1) + "/" + matcher_1.group(6) + "-" + matcher_1.group(5) + "-" + matcher_1.group(4);
+
+            Matcher matcher_3 = PATTERN_3.matcher(date);
+            if (matcher_3.matches())
+                return matcher_3.group(3) + "-" + "0" + matcher_3.group(2) + "-" + "0" + matcher_3.group(1) + "/" + matcher_3.group(6) + "-" + "0" + matcher_3.group(5) + "-" + "0" + matcher_3.group(4);
+
+            Matcher matcher_2 = PATTERN_2.matcher(date);
+            if (matcher_2.matches())
+                return matcher_2.group(1) + "/" + matcher_2.group(3);
+
+            Matcher matcher_4 = PATTERN_4.matcher(date);
+            if (matcher_4.matches())
+                return "0001/" + matcher_4.group(2);
+
+            Matcher matcher_5 = PATTERN_5.matcher(date);
+            if (matcher_5.matches())
+                return matcher_5.group(2) + "/2099";
+
+            Matcher matcher_6 = PATTERN_6.matcher(date);
+            if (matcher_6.matches())
+                return matcher_6.group(2);
+
+            Matcher matcher_7 = PATTERN_7.matcher(date);
+            if (matcher_7.matches())
+                return (Integer.parseInt(matcher_7.group(1)) - 1) + "00/" + matcher_7.group(1) + "00";
+
+            Matcher matcher_8 = PATTERN_8.matcher(date);
+            if (matcher_8.matches())
+                return (Integer.parseInt(matcher_8.group(1)) - 1) + "00/" + matcher_8.group(4) + "00";
+
+            return null;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
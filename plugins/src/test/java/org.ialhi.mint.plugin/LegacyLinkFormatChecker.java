@@ -0,0 +1,70 @@
+package org.ialhi.mint.plugin;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * normalizeLink as LinkFormatChecker implemented it before LinkScanner, with java.net.URL and
+ * URL_PATTERN. Kept as the reference the scanner is tested against, with the two changes of
+ * ExtensionPolicy: cfg instead of the bogus .cfg, and extensions in any case.
+ */
+public class LegacyLinkFormatChecker {
+    //First row: prefix; second row: alphanumeric URL; third row: IP4 URL; fourth row: optional port and anything after the /
+    private static final Pattern URL_PATTERN = Pattern.compile("^(http|https|ftp)\\://"
+            + "(([a-zA-Z0-9\\-\\.]+\\.[a-zA-Z]{2,3})?|"
+            + "(^([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.\n([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.([01]?\\d\\d?|2[0-4]\\d|25[0-5])$)?)"
+            + "(:[a-zA-Z0-9]*)?/?([a-zA-Z0-9\\-\\._\\?\\,\\'/\\\\\\+&amp;%\\$\\:#\\=~\\[\\]\\(\\)@;!])*$");
+
+    private static final String[] FORBIDDEN_EXTENSIONS = {"bmp", "gif", "jpg", "png", "psd", "pspimage",
+            "tif", "tiff", "dds", "indd", "pct", "pict", "tga", "yuv", "ai", "eps", "ps", "svg", "3dm",
+            "3ds", "max", "obj", "doc", "docx", "log", "msg", "odt", "pages", "pdf", "rtf", "txt", "wpd",
+            "wps", "tex", "csv", "dat", "ged", "key", "pps", "ppt", "pptx", "vcf", "xlr", "xls", "xlsx",
+            "xml", "3g2", "3gp", "aif", "avi", "flv", "iff", "m3u", "m4a", "mid", "mov", "mp3", "mp4", "mpa",
+            "mpg", "ra", "rm", "swf", "wav", "wma", "wmv", "asf", "asx", "m4v", "srt", "7z", "cbr", "deb",
+            "gz", "pkg", "rar", "rpm", "tar", "zip", "zipx", "accdb", "db", "dbf", "mdb", "pdb", "sdf", "sql",
+            "asp", "aspx", "css", "htm", "html", "js", "jsp", "php", "rss", "xhtm", "xhtml", "apk", "app",
+            "bat", "exe", "jar", "bak", "tmp", "dot", "dotm", "dotx", "pot", "potm", "potx", "ots", "ott", "stc",
+            "stw", "xlt", "c", "class", "cpp", "cs", "dtd", "fla", "h", "java", "m", "p", "py", "rng", "sh",
+            "xsd", "xsl", "cur", "dll", "drv", "icns", "ico", "sys", "cfg", "ini", "prf", "cgi", "gpx", "kml",
+            "kmz", "crx", "plugin", "fnt", "fon", "otf", "ttf"};
+    private static List<String> FORBIDDEN_EXTENSIONS_LIST;
+
+    static {
+        FORBIDDEN_EXTENSIONS_LIST = Arrays.asList(FORBIDDEN_EXTENSIONS);
+    }
+
+    public String normalizeLink(String link) {
+        try {
+            URL currentUrl = new URL(link);
+            link = currentUrl.toString();
+        } catch (MalformedURLException ex) {
+            String part = link;
+            if(!part.contains("://")) {
+                if(part.contains("/"))
+                    part = part.substring(0, part.indexOf("/"));
+                if(part.contains("."))
+                    part = part.substring(part.lastIndexOf(".") + 1, part.length());
+                if(FORBIDDEN_EXTENSIONS_LIST.contains(part.toLowerCase(Locale.ROOT)))
+                    return null;
+            }
+
+            if (ex.getMessage().startsWith("no protocol") || ex.getMessage().startsWith("unknown protocol")) {
+                link = "http://" + link;
+            }
+        }
+        Matcher matcher = URL_PATTERN.matcher(link);
+        try {
+            if (matcher.matches()) {
+                return link;
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        return null;
+    }
+}
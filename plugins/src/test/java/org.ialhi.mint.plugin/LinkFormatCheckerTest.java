@@ -0,0 +1,157 @@
+package org.ialhi.mint.plugin;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LinkFormatCheckerTest {
+    private static final int CORPUS_SIZE = 300000;
+
+    private static final String[] TOKENS = {
+            "http", "https", "ftp", "HTTP", "Https", "fTp", "file", "jar", "mailto", "netdoc", "gopher", "url", "URL",
+            "javascript", "h\u0131tp", "x+y.z", "1http", ":", "://", "//", "/", "////", "///", "#", "?", "@", "@@",
+            "[", "]", "[::1]", "[fe80::1%25eth0]", "[::ffff:192.168.0.1]", "[1:2:3:4:5:6:7:8]", "[1:2:3:4:5:6:7:8:9]",
+            "[::1.2.3]", "[12345::]", "[:1]", "[::]", ":80", ":8080", ":", ":-1", ":-2", ":+80", ":x", ":99999999999",
+            ":\u0668\u0660", "www", "example", ".", "org", "com", "nl", "info", "192.168.0.1", "256.1.1.1", "pdf",
+            "jpg", "cfg", ".cfg", "PDF", "Cfg", "html", "index", "user:pass", "a", "b", "0", "-", "_", "~", "%20", "&amp;", "=",
+            " ", "  ", "\t", "\n", "\u00a0", "\u0001", "\u00e9", "\u0130", "'", "\\", "!", "$", ",", ";", "(", ")",
+            "*", "\"", "<", ">", "{", "|", "^", "`"
+    };
+
+    private static final String[] TEMPLATES = {
+            "http://www.example.org/%s", "https://%s.example.org:%s/", "%s://%s/%s", " %s:%s ", "url:%s://%s",
+            "www.%s.%s/%s", "%s.%s", "ftp://%s@%s/", "%s:%s", "http://[%s]:%s/", "HTTP://%s?%s#%s", "#%s",
+            "http:%s", "http:///%s", "http://?%s", "http://#%s", "\thttp://%s.%s\n", "http://%s:%s@%s/"
+    };
+
+    @Test
+    public void scannerGivesTheResultsOfURL() {
+        LegacyLinkFormatChecker legacy = new LegacyLinkFormatChecker();
+        LinkFormatChecker checker = new LinkFormatChecker();
+        Random random = new Random(20210);
+        List<String> tokens = comparableTokens();
+        for (int n = 0; n < CORPUS_SIZE; n++) {
+            String link;
+            if (random.nextBoolean()) {
+                Object[] parts = new Object[3];
+                for (int i = 0; i < parts.length; i++)
+                    parts[i] = tokens(random, tokens, 1 + random.nextInt(3));
+                link = String.format(TEMPLATES[random.nextInt(TEMPLATES.length)], parts);
+            } else {
+                link = tokens(random, tokens, 1 + random.nextInt(8));
+            }
+            assertEquals("Input [" + link + "]", normalizeLegacy(legacy, link), checker.normalizeLink(link));
+        }
+    }
+
+    /* The scanner knows the protocol handlers of Java 8; later versions dropped netdoc */
+    private static List<String> comparableTokens() {
+        List<String> tokens = new ArrayList<>(Arrays.asList(TOKENS));
+        try {
+            new URL("netdoc:x");
+        } catch (MalformedURLException e) {
+            tokens.remove("netdoc");
+        }
+        return tokens;
+    }
+
+    /* URL throws without a message for some jar: links with leading white space, which made the old code fail */
+    private static String normalizeLegacy(LegacyLinkFormatChecker legacy, String link) {
+        try {
+            return legacy.normalizeLink(link);
+        } catch (NullPointerException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void linksAreNormalizedAsBefore() {
+        LinkFormatChecker checker = new LinkFormatChecker();
+        assertEquals("http://www.example.org/a?b#c", checker.normalizeLink(" URL:HTTP://www.example.org/a?b#c\n"));
+        assertEquals("http://www.example.org", checker.normalizeLink("www.example.org"));
+        assertEquals("http://www.example.org/file.pdf", checker.normalizeLink("www.example.org/file.pdf"));
+        assertEquals("https://[::1]:8443/", checker.normalizeLink("https://[::1]:8443/"));
+        assertEquals("http://host:port/", checker.normalizeLink("http://host:port/"));
+        assertNull(checker.normalizeLink(" http://host:port/"));
+        assertNull(checker.normalizeLink("report.pdf"));
+        assertNull(checker.normalizeLink("http:///path"));
+        assertNull(checker.normalizeLink("mailto:someone@example.org"));
+        assertNull(checker.normalizeLink("www.example.org/a b"));
+        assertNull(checker.normalizeLink(" jar:x"));
+        assertNull(checker.normalizeLink("settings.cfg"));
+        assertNull(checker.normalizeLink("REPORT.PDF/page"));
+    }
+
+    @Test
+    public void repeatedLinksAreCached() {
+        LinkFormatChecker checker = new LinkFormatChecker();
+        BoundedCache<String, String> cache = checker.getCache();
+        for (int i = 0; i < 3; i++) {
+            assertEquals("http://www.example.org/finding-aid", checker.normalize("www.example.org/finding-aid"));
+            assertNull(checker.normalize("scan.jpg"));
+        }
+        String longLink = "http://www.example.org/" + StringUtils.repeat('x', 5000);
+        assertEquals(longLink, checker.normalize(longLink));
+        assertEquals(3, cache.getMisses());
+        assertEquals(4, cache.getHits());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void batchKeepsOrderAndChecksEachLinkOnce() {
+        LinkFormatChecker checker = new LinkFormatChecker();
+        LinkFormatCheckerBatch batch = new LinkFormatCheckerBatch(checker);
+        List<String> out = batch.normalizeLinks(Arrays.asList("www.example.org", "scan.jpg", "https://example.org/", "www.example.org", "scan.jpg"));
+        assertEquals(Arrays.asList("http://www.example.org", null, "https://example.org/", "http://www.example.org", null), out);
+        assertEquals(3, checker.getCache().getMisses());
+        assertEquals(0, checker.getCache().getHits());
+    }
+
+    @Test
+    public void everyExtensionIsFoundInAnyCase() {
+        ExtensionPolicy policy = ExtensionPolicy.getDefault();
+        assertEquals(150, policy.size());
+        for (String extension : new String[]{"pdf", "PDF", "Jpg", "pspimage", "7z", "cfg", "h", "TTF"})
+            assertTrue(extension, policy.isForbidden(extension));
+        for (String extension : new String[]{"", ".cfg", "pd", "pdff", "org", "com", "nl", "hh", "7", "\u00f6"})
+            assertFalse(extension, policy.isForbidden(extension));
+        assertTrue(policy.isForbidden("www.report.pdf/x", 11, 14));
+
+        ExtensionPolicy custom = ExtensionPolicy.parse("# test\n.ABC def \u00c9t\n");
+        assertEquals(3, custom.size());
+        assertTrue(custom.isForbidden("abc"));
+        assertTrue(custom.isForbidden("\u00e9T"));
+        assertFalse(custom.isForbidden("pdf"));
+        assertFalse(ExtensionPolicy.parse("").isForbidden("pdf"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void extensionsHaveNoDots() {
+        ExtensionPolicy.parse("tar.gz");
+    }
+
+    @Test
+    public void unreadableExtensionsFileFallsBackToTheBundledList() {
+        ExtensionPolicy missing = ExtensionPolicy.load("does/not/exist.txt");
+        assertEquals(150, missing.size());
+        assertTrue(missing.isForbidden("pdf"));
+    }
+
+    private static String tokens(Random random, List<String> from, int count) {
+        StringBuilder tokens = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            tokens.append(from.get(random.nextInt(from.size())));
+        return tokens.toString();
+    }
+}
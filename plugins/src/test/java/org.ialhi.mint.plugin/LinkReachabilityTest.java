@@ -0,0 +1,195 @@
+package org.ialhi.mint.plugin;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reachability checks against a local server: /ok answers 200, /gone 404, /broken closes the
+ * connection without an answer and /slow answers 200 once the test releases it.
+ */
+public class LinkReachabilityTest {
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private ExecutorService handlers;
+    private String base;
+    private final AtomicInteger slowArrived = new AtomicInteger();
+    private final CountDownLatch slowReleased = new CountDownLatch(1);
+
+    @Before
+    public void startServer() throws IOException {
+        handlers = Executors.newCachedThreadPool();
+        base = startServer(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.startsWith("/broken"))
+                throw new IOException("No answer");
+            if (path.startsWith("/slow")) {
+                slowArrived.incrementAndGet();
+                try {
+                    slowReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            exchange.sendResponseHeaders(path.startsWith("/gone") ? 404 : 200, -1);
+            exchange.close();
+        });
+    }
+
+    private String startServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", handler);
+        server.setExecutor(handlers);
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        slowReleased.countDown();
+        for (HttpServer server : servers)
+            server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    public void deadLinksAreRejectedAndRememberedAcrossRuns() throws Exception {
+        File file = folder.newFile("linkreachability.log");
+        try (LinkReachability reachability = new LinkReachability(file, TTL, 4, 2, 5000, 5000)) {
+            LinkFormatChecker checker = new LinkFormatChecker(reachability);
+            assertEquals(base + "/ok", checker.normalize(base + "/ok"));
+            assertNull(checker.normalize(base + "/gone"));
+            assertNull(checker.normalize(base + "/gone"));
+            assertEquals(2, reachability.getRequests());
+        }
+        try (LinkReachability reachability = new LinkReachability(file, TTL, 4, 2, 5000, 5000)) {
+            LinkFormatChecker checker = new LinkFormatChecker(reachability);
+            assertEquals(base + "/ok", checker.normalize(base + "/ok"));
+            assertNull(checker.normalize(base + "/gone"));
+            assertEquals(0, reachability.getRequests());
+        }
+        try (LinkReachability expired = new LinkReachability(file, 0, 4, 2, 5000, 5000)) {
+            assertEquals(LinkReachability.Status.UNREACHABLE, expired.check(base + "/gone", expired.deadline()));
+            assertEquals(1, expired.getRequests());
+        }
+    }
+
+    @Test
+    public void onlyHostsThatCannotBeReachedAreUnreachable() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            closedPort = socket.getLocalPort();
+        }
+        try (LinkReachability reachability = new LinkReachability(folder.newFile(), TTL, 4, 2, 5000, 5000)) {
+            assertEquals(LinkReachability.Status.UNREACHABLE, reachability.check("http://127.0.0.1:" + closedPort + "/", reachability.deadline()));
+            //A failure that may pass is not remembered
+            assertEquals(LinkReachability.Status.UNKNOWN, reachability.check(base + "/broken", reachability.deadline()));
+            assertEquals(LinkReachability.Status.UNKNOWN, reachability.check(base + "/broken", reachability.deadline()));
+            assertEquals(3, reachability.getRequests());
+        }
+    }
+
+    @Test
+    public void unreachableResultsExpireFirst() throws Exception {
+        File file = folder.newFile("linkreachability.log");
+        try (LinkReachability reachability = new LinkReachability(file, TTL, 0, 4, 2, 5000, 5000)) {
+            assertEquals(LinkReachability.Status.REACHABLE, reachability.check(base + "/ok", reachability.deadline()));
+            assertEquals(LinkReachability.Status.UNREACHABLE, reachability.check(base + "/gone", reachability.deadline()));
+            assertEquals(LinkReachability.Status.REACHABLE, reachability.check(base + "/ok", reachability.deadline()));
+            assertEquals(LinkReachability.Status.UNREACHABLE, reachability.check(base + "/gone", reachability.deadline()));
+            assertEquals(3, reachability.getRequests());
+        }
+    }
+
+    @Test
+    public void aStaleLatestLineHidesAnOlderResult() throws Exception {
+        File file = folder.newFile("linkreachability.log");
+        long now = System.currentTimeMillis();
+        FileUtils.writeStringToFile(file, (now - TimeUnit.DAYS.toMillis(3)) + "\tREACHABLE\t" + base + "/gone\n"
+                + (now - TimeUnit.DAYS.toMillis(2)) + "\tUNREACHABLE\t" + base + "/gone\n", "UTF-8");
+        try (LinkReachability reachability = new LinkReachability(file, TimeUnit.DAYS.toMillis(7), TimeUnit.HOURS.toMillis(24), 4, 2, 5000, 5000)) {
+            assertEquals("", FileUtils.readFileToString(file, "UTF-8"));
+            assertEquals(LinkReachability.Status.UNREACHABLE, reachability.check(base + "/gone", reachability.deadline()));
+            assertEquals(1, reachability.getRequests());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void idleHostsAreDropped() throws Exception {
+        try (LinkReachability reachability = new LinkReachability(folder.newFile(), TTL, 4, 2, 5000, 5000)) {
+            String other = startServer(exchange -> {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            assertEquals(LinkReachability.Status.REACHABLE, reachability.check(base + "/ok", reachability.deadline()));
+            assertEquals(LinkReachability.Status.REACHABLE, reachability.check(other + "/ok", reachability.deadline()));
+            waitFor(() -> reachability.getHostCount() == 0);
+            assertEquals(LinkReachability.Status.UNREACHABLE, reachability.check(base + "/gone", reachability.deadline()));
+            assertEquals(3, reachability.getRequests());
+        }
+    }
+
+    /* A blocked call would wait for the read timeout, far beyond the time the test may take */
+    @Test(timeout = 30000)
+    public void slowLinksDoNotBlockBeyondTheBudget() throws Exception {
+        try (LinkReachability reachability = new LinkReachability(folder.newFile(), TTL, 4, 2, 60000, 100)) {
+            LinkFormatCheckerBatch batch = new LinkFormatCheckerBatch(new LinkFormatChecker(reachability));
+            List<String> slow = Arrays.asList(base + "/slow/1", base + "/slow/2", base + "/slow/3", base + "/slow/4");
+            List<String> links = new ArrayList<>(slow);
+            links.add("scan.jpg");
+            List<String> out = batch.normalizeLinks(links);
+            assertEquals(Arrays.asList(base + "/slow/1", base + "/slow/2", base + "/slow/3", base + "/slow/4", null), out);
+
+            //Two at a time to the host; the other two wait without holding a thread, so another host goes ahead
+            waitFor(() -> slowArrived.get() == 2);
+            String other = startServer(exchange -> {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            });
+            assertEquals(LinkReachability.Status.REACHABLE, reachability.check(other + "/ok", System.nanoTime() + TimeUnit.SECONDS.toNanos(20)));
+            assertEquals(2, slowArrived.get());
+            assertEquals(3, reachability.getRequests());
+
+            //The checks went on and their results are there for the next call
+            slowReleased.countDown();
+            for (String link : slow)
+                assertEquals(LinkReachability.Status.REACHABLE, reachability.check(link, System.nanoTime() + TimeUnit.SECONDS.toNanos(20)));
+            assertEquals(5, reachability.getRequests());
+            assertEquals(LinkReachability.Status.REACHABLE, reachability.check(base + "/slow/1", reachability.deadline()));
+            assertEquals(5, reachability.getRequests());
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean())
+            Thread.sleep(10);
+    }
+}